@@ -0,0 +1,174 @@
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A string-count map that never holds more than a fixed number of strings,
+ * for vocabularies that are too large to count exactly (e.g. bigrams and trigrams of the review bodies).
+ *
+ * It uses lossy counting: when a stripe is full, the half of its strings with the lowest counts is dropped,
+ * and the count of the last dropped string becomes the stripe's error floor. A string that is counted again
+ * after being dropped may have been undercounted by at most the floor at that time, so frequent strings
+ * stay in the map with nearly exact counts, and rare ones are the ones that get dropped.
+ *
+ * A string always goes to the same one of the STRIPES stripes, so the capacity, the dropping and the
+ * error floor are per stripe, and threads counting strings of different stripes do not wait for each other.
+ *
+ * @author kaungyang
+ *
+ */
+public class BoundedStringCounter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final static int STRIPES = 16;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final int stripeCapacity;
+
+	/**
+	 * @param capacity the maximum number of strings kept across all stripes
+	 */
+	public BoundedStringCounter(int capacity) {
+		this.stripeCapacity = Math.max(2, capacity / STRIPES);
+		for(int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/* the count of a string and the maximum undercount it had when it was first added */
+	private static class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private int count;
+		private final int error;
+
+		private Entry(int error) {
+			this.error = error;
+		}
+	}
+
+	private static class Stripe implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final Map<String, Entry> counts = new HashMap<>();
+		private int floor = 0;
+	}
+
+	private Stripe stripeOf(String s) {
+		int h = s.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * adds one to the count of the string
+	 * @param s the string to count
+	 */
+	public void increment(String s) {
+		add(s, 1);
+	}
+
+	/**
+	 * adds to the count of the string, e.g. to carry over an exact count
+	 * @param s the string to count
+	 * @param count the number to add
+	 */
+	public void add(String s, int count) {
+		if(s == null)
+			return;
+
+		Stripe stripe = stripeOf(s);
+		synchronized(stripe) {
+			Entry entry = stripe.counts.get(s);
+			if(entry == null) {
+				if(stripe.counts.size() >= stripeCapacity) {
+					prune(stripe);
+				}
+				entry = new Entry(stripe.floor);
+				stripe.counts.put(s, entry);
+			}
+			entry.count += count;
+		}
+	}
+
+	/**
+	 * adds one to the count of every string in the array
+	 * @param strArr the strings to count
+	 */
+	public void incrementAll(String[] strArr) {
+		for(String s: strArr) {
+			increment(s);
+		}
+	}
+
+	/**
+	 * drops the half of the stripe with the lowest possible counts (count + error),
+	 * and raises the floor to the highest possible count that was dropped.
+	 */
+	private void prune(Stripe stripe) {
+		int[] upperBounds = new int[stripe.counts.size()];
+		int i = 0;
+		for(Entry entry: stripe.counts.values()) {
+			upperBounds[i++] = entry.count + entry.error;
+		}
+		Arrays.sort(upperBounds);
+		int threshold = upperBounds[upperBounds.length / 2];
+
+		stripe.counts.values().removeIf(entry -> entry.count + entry.error <= threshold);
+		stripe.floor = Math.max(stripe.floor, threshold);
+	}
+
+	/**
+	 * @return the highest undercount of any string that is still counted
+	 */
+	public int getMaxError() {
+		int max = 0;
+		for(Stripe stripe: stripes) {
+			synchronized(stripe) {
+				max = Math.max(max, stripe.floor);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return the number of strings currently kept
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe stripe: stripes) {
+			synchronized(stripe) {
+				size += stripe.counts.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * returns the numOfStrings strings with the highest counts, to be printed with Util.getStringCountMapString.
+	 * the counts are lower bounds of the real counts, off by at most getMaxError.
+	 *
+	 * @param numOfStrings the number of strings to return
+	 * @return a string-count map with at most numOfStrings entries
+	 */
+	public Map<String, Integer> getTopCounts(int numOfStrings) {
+		PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+		for(Stripe stripe: stripes) {
+			synchronized(stripe) {
+				for(Map.Entry<String, Entry> entry: stripe.counts.entrySet()) {
+					int count = entry.getValue().count;
+					if(top.size() < numOfStrings || count > top.peek().getValue()) {
+						top.add(new AbstractMap.SimpleEntry<>(entry.getKey(), count));
+						if(top.size() > numOfStrings) {
+							top.poll();
+						}
+					}
+				}
+			}
+		}
+		Map<String, Integer> topMap = new HashMap<>();
+		for(Map.Entry<String, Integer> entry: top) {
+			topMap.put(entry.getKey(), entry.getValue());
+		}
+		return topMap;
+	}
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * A hash map from long keys to objects that several threads can update at once,
+ * for maps keyed by packed ids (see IdCodec), e.g. review_id to CustomerReview.
+ *
+ * It is a StripedLongTable with one object per row, so an entry costs a slot of the LongIntHashMap of its stripe,
+ * its key and a reference instead of a boxed key and a map node.
+ * Single entries cannot be removed, only all of them at once.
+ *
+ * @author kaungyang
+ *
+ * @param <V> the type of the values
+ */
+public class ConcurrentLongObjectMap<V> extends StripedLongTable<ConcurrentLongObjectMap.ValueStripe> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * An action on a key and its value, for forEach.
+	 */
+	public interface EntryConsumer<V> {
+		void accept(long key, V value);
+	}
+
+	public ConcurrentLongObjectMap() {
+		super(ValueStripe::new);
+	}
+
+	/* the values of the keys of a stripe, by row */
+	static class ValueStripe extends StripedLongTable.Stripe {
+		private static final long serialVersionUID = 1L;
+
+		private Object[] values = new Object[16];
+
+		@Override
+		protected void growRows(int length) {
+			values = Arrays.copyOf(values, length);
+		}
+
+		private Object get(long key) {
+			int row = findRow(key);
+			return row < 0 ? null : values[row];
+		}
+
+		private void put(long key, Object value) {
+			int row = rowOf(key); // before reading values, which rowOf may grow
+			values[row] = value;
+		}
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @return the value of the key, or null if it is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		ValueStripe stripe = stripeOf(key);
+		synchronized(stripe) {
+			return (V) stripe.get(key);
+		}
+	}
+
+	/**
+	 * @param key the key
+	 * @param value the value of the key, replacing any previous one
+	 */
+	public void put(long key, V value) {
+		ValueStripe stripe = stripeOf(key);
+		synchronized(stripe) {
+			stripe.put(key, value);
+		}
+	}
+
+	/**
+	 * returns the value of the key, first putting the value of the mapping function if there is none.
+	 * the mapping function is called while the stripe of the key is locked, so it must be quick.
+	 *
+	 * @param key the key
+	 * @param mappingFunction makes the value of a key that is not in the map
+	 * @return the value of the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction) {
+		ValueStripe stripe = stripeOf(key);
+		synchronized(stripe) {
+			V value = (V) stripe.get(key);
+			if(value == null) {
+				value = mappingFunction.apply(key);
+				stripe.put(key, value);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * removes all the keys
+	 */
+	public void clear() {
+		for(int s = 0; s < STRIPES; s++) {
+			ValueStripe stripe = stripe(s);
+			synchronized(stripe) {
+				stripe.clearRows();
+				stripe.values = new Object[16];
+			}
+		}
+	}
+
+	/**
+	 * calls the action with every key and its value, one stripe at a time.
+	 * the stripe is locked while the action runs, so the action must not update this map.
+	 *
+	 * @param action the action to call
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryConsumer<? super V> action) {
+		for(int s = 0; s < STRIPES; s++) {
+			ValueStripe stripe = stripe(s);
+			synchronized(stripe) {
+				for(int row = 0; row < stripe.size; row++) {
+					action.accept(stripe.keys[row], (V) stripe.values[row]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A string-count map that can be updated by many ingest threads at once.
+ *
+ * Every string owns a LongAdder, so threads that hit the same hot word (e.g. "great", "sound")
+ * add to separate cells instead of spinning on one counter, and threads that hit different
+ * words never block each other. Counts are only combined when they are read.
+ *
+ * @author kaungyang
+ *
+ */
+public class ConcurrentStringCounter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ConcurrentHashMap<String, LongAdder> counts;
+
+	public ConcurrentStringCounter() {
+		this.counts = new ConcurrentHashMap<>();
+	}
+
+	public ConcurrentStringCounter(int expectedSize) {
+		this.counts = new ConcurrentHashMap<>(expectedSize);
+	}
+
+	/**
+	 * adds one to the count of the string
+	 * @param s the string to count
+	 */
+	public void increment(String s) {
+		add(s, 1);
+	}
+
+	/**
+	 * adds amount to the count of the string
+	 * @param s the string to count
+	 * @param amount the amount to add
+	 */
+	public void add(String s, long amount) {
+		if(s == null)
+			return;
+
+		LongAdder adder = counts.get(s);
+		if(adder == null) {
+			adder = counts.computeIfAbsent(s, k -> new LongAdder());
+		}
+		adder.add(amount);
+	}
+
+	/**
+	 * adds one to the count of every string in the array
+	 * @param strArr the strings to count, usually the output of Util.getCleanWordArray
+	 */
+	public void incrementAll(String[] strArr) {
+		for(String s: strArr) {
+			increment(s);
+		}
+	}
+
+	/**
+	 * adds every string-count pair of the map, e.g. a partial count from another thread or process
+	 * @param map the string-count map to add
+	 */
+	public void addAll(Map<String, Integer> map) {
+		for(Map.Entry<String, Integer> entry: map.entrySet()) {
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @param s the string to look up
+	 * @return the current count of the string, 0 if never counted
+	 */
+	public long get(String s) {
+		LongAdder adder = counts.get(s);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	public int size() { return counts.size(); }
+
+	public void clear() { counts.clear(); }
+
+	/**
+	 * calls the action with every string and its current count, without copying the counts
+	 * @param action the action to call
+	 */
+	public void forEach(ObjLongConsumer<String> action) {
+		for(Map.Entry<String, LongAdder> entry: counts.entrySet()) {
+			action.accept(entry.getKey(), entry.getValue().sum());
+		}
+	}
+
+	/**
+	 * returns the numOfStrings strings with the highest counts, to be printed with Util.getStringCountMapString,
+	 * without copying the other counts.
+	 *
+	 * @param numOfStrings the number of strings to return
+	 * @return a string-count map with at most numOfStrings entries
+	 */
+	public Map<String, Integer> getTopCounts(int numOfStrings) {
+		PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+		for(Map.Entry<String, LongAdder> entry: counts.entrySet()) {
+			int count = entry.getValue().intValue();
+			if(top.size() < numOfStrings || count > top.peek().getValue()) {
+				top.add(new AbstractMap.SimpleEntry<>(entry.getKey(), count));
+				if(top.size() > numOfStrings) {
+					top.poll();
+				}
+			}
+		}
+		Map<String, Integer> topMap = new HashMap<>();
+		for(Map.Entry<String, Integer> entry: top) {
+			topMap.put(entry.getKey(), entry.getValue());
+		}
+		return topMap;
+	}
+
+	/**
+	 * returns a snapshot of the counts as a plain string-count hashmap,
+	 * so that it can be used with the Util printing methods.
+	 * counts that are still being updated may or may not be included.
+	 *
+	 * @return a HashMap copy of the current counts
+	 */
+	public Map<String, Integer> toMap() {
+		Map<String, Integer> map = new HashMap<>(counts.size() * 4 / 3 + 1);
+		for(Map.Entry<String, LongAdder> entry: counts.entrySet()) {
+			map.put(entry.getKey(), entry.getValue().intValue());
+		}
+		return map;
+	}
+}
@@ -26,7 +26,13 @@
  * @author kaungyang
  *
  */
-public class CustomerReview implements Comparable<CustomerReview>{
+public class CustomerReview implements Comparable<CustomerReview>, java.io.Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/* reviewDay of a review whose review_date could not be parsed */ 
+	public final static int NO_DATE = Integer.MIN_VALUE; 
+	
 	private String marketPlace; 
 	private String customerId; 
 	private String reviewId;
@@ -42,7 +48,10 @@ public class CustomerReview implements Comparable<CustomerReview>{
 	private String reviewHeadline; 
 	private String reviewBody; 
 	private String reviewDate;
-	private String[] cleanReviewBody; 
+	private int reviewDay; // review_date as days since 1970-01-01 
+	private long reviewIdCode; // review_id packed by IdCodec.pack, for equals, hashCode and compareTo 
+	private long productIdCode; // product_id packed by IdCodec.pack 
+	private transient String[] cleanReviewBody; // not written to checkpoints 
 	
 	private CustomerReview(Builder builder) {
 		this.marketPlace = builder.marketPlace; 
@@ -60,6 +69,9 @@ public class CustomerReview implements Comparable<CustomerReview>{
 		this.reviewHeadline = builder.reviewHeadline; 
 		this.reviewBody = builder.reviewBody; 
 		this.reviewDate = builder.reviewDate; 
+		this.reviewDay = builder.reviewDay; 
+		this.reviewIdCode = IdCodec.pack(this.reviewId); 
+		this.productIdCode = IdCodec.pack(this.productId); 
 	}
 	
 	/* getters for CustomerReviews Class */ 
@@ -78,13 +90,14 @@ public class CustomerReview implements Comparable<CustomerReview>{
 	public String getReviewHeadline() { return this.reviewHeadline; }
 	public String getReviewBody() { return this.reviewBody; }
 	public String getReviewDate() { return this.reviewDate; }
+	public int getReviewDay() { return this.reviewDay; }
 	public String[] getCleanReviewBody() { return this.getCleanReviewBody(); }
 	
 	/* setters for CustomerReviews Class */  
 	public void setMarketPlace(String var) { this.marketPlace = var; }
 	public void setCustomerId(String var) { this.customerId = var; }
-	public void setReviewId(String var) { this.reviewId = var; }
-	public void setProductId(String var) { this.productId = var; }
+	public void setReviewId(String var) { this.reviewId = var; this.reviewIdCode = IdCodec.pack(var); }
+	public void setProductId(String var) { this.productId = var; this.productIdCode = IdCodec.pack(var); }
 	public void setProductParent(String var) { this.productParent = var; }
 	public void setProductTitle(String var) { this.productTitle = var; }
 	public void setProductCategory(String var) { this.productCategory = var; }
@@ -96,7 +109,9 @@ public class CustomerReview implements Comparable<CustomerReview>{
 	public void setReviewHeadline(String var) { this.reviewHeadline = var; }
 	public void setReviewBody(String var) { this.reviewBody = var; }
 	public void setReviewDate(String var) { this.reviewDate = var; }
+	public void setReviewDay(int var) { this.reviewDay = var; }
 	public void setCleanReviewBody(String[] var) { if(var != null && var.length > 0 ) this.cleanReviewBody = var;}
+	public void clearCleanReviewBody() { this.cleanReviewBody = null; }
 	/**
 	 * CustomerReview toString method
 	 * 
@@ -119,34 +134,55 @@ public class CustomerReview implements Comparable<CustomerReview>{
 	/**
 	 *  CustomerReviews equals method
 	 *  
-	 *  If the review_id is the same, then they are the same reviews.
+	 *  If the review_id is the same (ignoring case), then they are the same reviews.
 	 *  Otherwise, they are not equal. 
+	 *  The packed review_ids are compared, and only review_ids that IdCodec cannot pack are compared as Strings. 
 	 *  */  
 	@Override
 	public boolean equals(Object obj) {
 		if(obj instanceof CustomerReview) {
 			CustomerReview otherObj = (CustomerReview) obj;
-			String otherReviewId = otherObj.getReviewId(); 
-			return this.getReviewId().equalsIgnoreCase(otherReviewId); 
+			if(this.reviewIdCode != IdCodec.NOT_PACKED || otherObj.reviewIdCode != IdCodec.NOT_PACKED) 
+				return this.reviewIdCode == otherObj.reviewIdCode; 
+			return this.getReviewId().equalsIgnoreCase(otherObj.getReviewId()); 
 		} 
 		return false;  
 	} 	
 	
+	/**
+	 * CustomerReview hashCode method, consistent with equals 
+	 */
+	@Override
+	public int hashCode() {
+		if(this.reviewIdCode != IdCodec.NOT_PACKED) 
+			return Long.hashCode(this.reviewIdCode); 
+		return this.getReviewId().toUpperCase().hashCode(); 
+	}
+	
 	/**
 	 * CustomerReview compareTo method
 	 * 
 	 * compares using review_id of two CustomerReviews, then    
 	 * compares using product_id of two CustomerReviews. 
+	 * packed ids are ordered by their codes and come before the ids that IdCodec cannot pack, 
+	 * which are compared as Strings ignoring case. 
 	 */
 	@Override
 	public int compareTo(CustomerReview review) {
-		 if(this.getReviewId().compareToIgnoreCase(review.getReviewId()) != 0) {
-			 return this.getReviewId().compareToIgnoreCase(review.getReviewId());
+		 int result = compareIds(this.reviewIdCode, this.getReviewId(), review.reviewIdCode, review.getReviewId()); 
+		 if(result != 0) {
+			 return result;
 		 } else {
-			 return this.getProductId().compareToIgnoreCase(review.getProductId());
+			 return compareIds(this.productIdCode, this.getProductId(), review.productIdCode, review.getProductId());
 		 } 
 	}
 	
+	private static int compareIds(long code, String id, long otherCode, String otherId) {
+		if(code != IdCodec.NOT_PACKED || otherCode != IdCodec.NOT_PACKED) 
+			return Long.compareUnsigned(code, otherCode); // NOT_PACKED is above every packed code 
+		return id.compareToIgnoreCase(otherId); 
+	}
+	
 	/**
 	 * Builder class for CustomerReview
 	 * One required parameter - reviewId.
@@ -169,6 +205,7 @@ public class CustomerReview implements Comparable<CustomerReview>{
 		private String reviewHeadline = "";  
 		private String reviewBody = "";  
 		private String reviewDate = ""; 
+		private int reviewDay = NO_DATE; 
 		
 		/* constructor of the builder to start off with */ 
 		public Builder marketPlace(String var) { this.marketPlace = var; return this; }
@@ -186,6 +223,7 @@ public class CustomerReview implements Comparable<CustomerReview>{
 		public Builder reviewHeadline(String var) { this.reviewHeadline = var; return this; }
 		public Builder reviewBody(String var) { this.reviewBody = var; return this; }
 		public Builder reviewDate(String var) { this.reviewDate = var; return this; }
+		public Builder reviewDay(int var) { this.reviewDay = var; return this; }
 		public CustomerReview build() { return new CustomerReview(this); }
 	}
 }
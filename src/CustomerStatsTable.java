@@ -0,0 +1,176 @@
+import java.util.*;
+
+/**
+ * Per-customer statistics, for finding the top reviewers and how they rate.
+ *
+ * customer_id is numeric in the data sets, so it is parsed to a long and the customers are the rows of a
+ * StripedLongTable (customer_id to row, so several ingest threads can add reviews at once) with the statistics
+ * in primitive arrays indexed by row:
+ * number of reviews, sum of star ratings, 1 star and 5 star reviews, helpful votes and verified purchases.
+ * That is 32 bytes per customer plus 12 bytes per hash slot, where a HashMap keyed by the customer_id String
+ * spends over 100 bytes per customer on the String, the map entry and the boxed value before any statistics.
+ *
+ * Reviews whose customer_id is not a number are only counted in getUnparsedCount.
+ *
+ * @author kaungyang
+ *
+ */
+public class CustomerStatsTable extends StripedLongTable<CustomerStatsTable.CustomerStripe> {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Metric {
+		REVIEW_COUNT("number of reviews"),
+		MEAN_RATING("mean star rating"),
+		HELPFUL_VOTES("helpful votes");
+
+		private final String description;
+
+		Metric(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() { return description; }
+	}
+
+	private long unparsedCount = 0;
+
+	public CustomerStatsTable() {
+		super(CustomerStripe::new);
+	}
+
+	/* the statistics of the customers of a stripe, by row. the keys are the customer_ids */
+	static class CustomerStripe extends StripedLongTable.Stripe {
+		private static final long serialVersionUID = 1L;
+
+		private int[] counts = new int[16];
+		private int[] starSums = new int[16];
+		private int[] oneStarCounts = new int[16];
+		private int[] fiveStarCounts = new int[16];
+		private int[] helpfulVotes = new int[16];
+		private int[] verified = new int[16];
+
+		@Override
+		protected void growRows(int length) {
+			counts = Arrays.copyOf(counts, length);
+			starSums = Arrays.copyOf(starSums, length);
+			oneStarCounts = Arrays.copyOf(oneStarCounts, length);
+			fiveStarCounts = Arrays.copyOf(fiveStarCounts, length);
+			helpfulVotes = Arrays.copyOf(helpfulVotes, length);
+			verified = Arrays.copyOf(verified, length);
+		}
+
+		private double value(int row, Metric metric) {
+			switch(metric) {
+				case MEAN_RATING:
+					return (double) starSums[row] / counts[row];
+				case HELPFUL_VOTES:
+					return helpfulVotes[row];
+				default:
+					return counts[row];
+			}
+		}
+
+		private CustomerStats snapshot(int row) {
+			return new CustomerStats(keys[row], counts[row], starSums[row], oneStarCounts[row],
+					fiveStarCounts[row], helpfulVotes[row], verified[row]);
+		}
+	}
+
+	/**
+	 * adds the review to the statistics of its customer
+	 * @param cr the review to add
+	 */
+	public void add(CustomerReview cr) {
+		long customerId = Util.parseNumericId(cr.getCustomerId());
+		if(customerId < 0) {
+			synchronized(this) {
+				unparsedCount++;
+			}
+			return;
+		}
+
+		CustomerStripe stripe = stripeOf(customerId);
+		synchronized(stripe) {
+			int row = stripe.rowOf(customerId);
+			int starRating = cr.getStarRating();
+			stripe.counts[row]++;
+			stripe.starSums[row] += starRating;
+			if(starRating == 1)
+				stripe.oneStarCounts[row]++;
+			else if(starRating == 5)
+				stripe.fiveStarCounts[row]++;
+			stripe.helpfulVotes[row] += cr.getHelpfulVotes();
+			if(cr.getVerifiedPurchase())
+				stripe.verified[row]++;
+		}
+	}
+
+	/**
+	 * @param customerId the numeric customer_id
+	 * @return a copy of the statistics of the customer, or null if they have no reviews
+	 */
+	public CustomerStats get(long customerId) {
+		CustomerStripe stripe = stripeOf(customerId);
+		synchronized(stripe) {
+			int row = stripe.findRow(customerId);
+			return row < 0 ? null : stripe.snapshot(row);
+		}
+	}
+
+	/**
+	 * @param minReviews the lowest number of reviews of a customer that is counted
+	 * @return the number of customers with at least minReviews reviews
+	 */
+	public int getCustomerCount(int minReviews) {
+		return countRows((stripe, row) -> stripe.counts[row], minReviews);
+	}
+
+	/** @return the number of reviews whose customer_id is not a number */
+	public synchronized long getUnparsedCount() { return unparsedCount; }
+
+	/**
+	 * returns the numOfCustomers customers with the highest value of the metric, ties broken by the number of reviews.
+	 *
+	 * @param metric the metric to rank by
+	 * @param numOfCustomers the number of customers to return
+	 * @param minReviews customers with less reviews are left out
+	 * @return the statistics of the customers, highest first
+	 */
+	public List<CustomerStats> getTopCustomers(Metric metric, int numOfCustomers, int minReviews) {
+		return getTopRows((stripe, row) -> stripe.value(row, metric), (stripe, row) -> stripe.counts[row], numOfCustomers, minReviews,
+				(stripe, row) -> stripe.snapshot(row));
+	}
+
+	/**
+	 * A copy of the statistics of one customer.
+	 */
+	public static class CustomerStats {
+		private final long customerId;
+		private final int reviewCount;
+		private final int starSum;
+		private final int oneStarCount;
+		private final int fiveStarCount;
+		private final int helpfulVotes;
+		private final int verifiedCount;
+
+		private CustomerStats(long customerId, int reviewCount, int starSum, int oneStarCount, int fiveStarCount,
+				int helpfulVotes, int verifiedCount) {
+			this.customerId = customerId;
+			this.reviewCount = reviewCount;
+			this.starSum = starSum;
+			this.oneStarCount = oneStarCount;
+			this.fiveStarCount = fiveStarCount;
+			this.helpfulVotes = helpfulVotes;
+			this.verifiedCount = verifiedCount;
+		}
+
+		public long getCustomerId() { return customerId; }
+		public int getReviewCount() { return reviewCount; }
+		public int getOneStarCount() { return oneStarCount; }
+		public int getFiveStarCount() { return fiveStarCount; }
+		public int getHelpfulVotes() { return helpfulVotes; }
+		public int getVerifiedCount() { return verifiedCount; }
+		public double getMeanRating() { return reviewCount == 0 ? 0 : (double) starSum / reviewCount; }
+	}
+}
@@ -0,0 +1,233 @@
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Packs review_ids and product_ids into longs, so that maps can key on a primitive long
+ * and two ids are compared or hashed with a single integer operation instead of a String comparison.
+ *
+ * The ids are short upper case alphanumerics, i.e. base-36 numbers, and the range of the code tells their shape:
+ * - codes 0 to 3 * 36^12 - 1 (as unsigned longs) are 14 character review_ids, "R1", "R2" or "R3" and 12 base-36 digits,
+ *   like R36ED1U38IELG8. the digit after the R and the other 12 digits are the number.
+ * - the next sum(36^k, k = 1..11) codes are ids of 1 to 11 characters, like the 10 character product_id B00D7JFOPC.
+ *   they are numbered in bijective base-36 (digits 1 to 36), so that the length needs no digits of its own
+ *   and AB and 0AB are different codes.
+ * - the next 36^11 codes are 12 character review_ids, "R" and 11 base-36 digits, like RNX4EXOBBPN5.
+ * - the next 30 * 36^11 codes are 13 character review_ids, "R" and 12 base-36 digits, like R4R337CCDWLNG,
+ *   whose first digit is 0 to T. all 36^12 of them do not fit in a long next to the 14 character ones,
+ *   so the ones from RU to RZ are left to the dictionary.
+ * - codes from DICTIONARY_BASE up are indexes into a dictionary of all the other ids,
+ *   which is kept by each IdCodec and only grows when such an id is first seen.
+ * Lower case letters are packed like upper case ones, as the ids were compared ignoring case before.
+ *
+ * pack only uses the packed shapes and does not need an IdCodec, so its codes are the same in every run.
+ * encode falls back to the dictionary, so its codes are only meaningful to the same IdCodec.
+ *
+ * @author kaungyang
+ *
+ */
+public class IdCodec implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/* returned by pack for ids that can only be encoded with a dictionary. no id has this code */
+	public final static long NOT_PACKED = 0xFFFFFFFE00000000L;
+
+	private final static long DICTIONARY_BASE = 0xFFFFFFFF00000000L;
+	private final static long POW_36_12 = 4738381338321616896L; // 36^12
+	private final static long LONG_REVIEW_IDS = 3 * POW_36_12; // overflows to a negative long, compared unsigned
+	private final static int MAX_SHORT_LENGTH = 11;
+	private final static long SHORT_IDS = 135382323952046196L; // sum(36^k, k = 1..11)
+	private final static long POW_36_11 = 131621703842267136L; // 36^11
+	private final static long TWELVE_CHAR_IDS = LONG_REVIEW_IDS + SHORT_IDS; // the first code of the 12 character review_ids
+	private final static long THIRTEEN_CHAR_IDS = TWELVE_CHAR_IDS + POW_36_11; // the first code of the 13 character review_ids
+	private final static int THIRTEEN_CHAR_FIRST_DIGITS = 30; // 0 to T, the codes up to DICTIONARY_BASE cannot hold more
+
+	private final Map<String, Integer> dictionaryIndex = new ConcurrentHashMap<>();
+	private final List<String> dictionary = new ArrayList<>();
+
+	/**
+	 * @param c a character of an id
+	 * @return the base-36 value of c, or -1 if it is not alphanumeric
+	 */
+	private static int digitOf(char c) {
+		if(c >= '0' && c <= '9')
+			return c - '0';
+		if(c >= 'A' && c <= 'Z')
+			return c - 'A' + 10;
+		if(c >= 'a' && c <= 'z')
+			return c - 'a' + 10;
+		return -1;
+	}
+
+	private static char charOf(int digit) {
+		return (char) (digit < 10 ? '0' + digit : 'A' + digit - 10);
+	}
+
+	/**
+	 * @return the base-36 number of the characters of the id from start on, or -1 if one is not alphanumeric
+	 */
+	private static long digitsOf(String id, int start) {
+		long number = 0;
+		for(int i = start; i < id.length(); i++) {
+			int digit = digitOf(id.charAt(i));
+			if(digit < 0)
+				return -1;
+			number = number * 36 + digit;
+		}
+		return number;
+	}
+
+	/* writes the number into chars from start to the end, as base-36 digits */
+	private static void writeDigits(char[] chars, int start, long number) {
+		for(int i = chars.length - 1; i >= start; i--) {
+			chars[i] = charOf((int) (number % 36));
+			number /= 36;
+		}
+	}
+
+	/**
+	 * packs the id without a dictionary.
+	 *
+	 * @param id a review_id or product_id
+	 * @return the code of the id, or NOT_PACKED if it does not have one of the packed shapes
+	 */
+	public static long pack(String id) {
+		int length = id.length();
+		boolean reviewId = length > 0 && (id.charAt(0) == 'R' || id.charAt(0) == 'r');
+		if(reviewId && length == 14 && id.charAt(1) >= '1' && id.charAt(1) <= '3') {
+			long digits = digitsOf(id, 2);
+			return digits < 0 ? NOT_PACKED : (id.charAt(1) - '1') * POW_36_12 + digits;
+		}
+		if(reviewId && length == 12) {
+			long digits = digitsOf(id, 1);
+			return digits < 0 ? NOT_PACKED : TWELVE_CHAR_IDS + digits;
+		}
+		if(reviewId && length == 13) {
+			long digits = digitsOf(id, 1);
+			if(digits < 0 || digits >= THIRTEEN_CHAR_FIRST_DIGITS * POW_36_11)
+				return NOT_PACKED;
+			return THIRTEEN_CHAR_IDS + digits;
+		}
+
+		if(length == 0 || length > MAX_SHORT_LENGTH)
+			return NOT_PACKED;
+		long code = 0;
+		for(int i = 0; i < length; i++) {
+			int digit = digitOf(id.charAt(i));
+			if(digit < 0)
+				return NOT_PACKED;
+			code = code * 36 + digit + 1;
+		}
+		return LONG_REVIEW_IDS + code - 1;
+	}
+
+	/**
+	 * encodes the id, adding it to the dictionary of this IdCodec if it cannot be packed.
+	 * safe to call from several threads.
+	 *
+	 * @param id a review_id or product_id
+	 * @return the code of the id
+	 */
+	public long encode(String id) {
+		long code = pack(id);
+		if(code != NOT_PACKED)
+			return code;
+
+		String key = id.toUpperCase();
+		Integer index = dictionaryIndex.get(key);
+		if(index == null) {
+			synchronized(dictionary) {
+				index = dictionaryIndex.get(key);
+				if(index == null) {
+					index = dictionary.size();
+					dictionary.add(key);
+					dictionaryIndex.put(key, index);
+				}
+			}
+		}
+		return DICTIONARY_BASE + index;
+	}
+
+	/**
+	 * encodes the id like encode, without adding it to the dictionary.
+	 *
+	 * @param id a review_id or product_id
+	 * @return the code of the id, or NOT_PACKED if it can only be encoded with a dictionary and is not in it
+	 */
+	public long lookup(String id) {
+		long code = pack(id);
+		if(code != NOT_PACKED)
+			return code;
+		Integer index = dictionaryIndex.get(id.toUpperCase());
+		return index == null ? NOT_PACKED : DICTIONARY_BASE + index;
+	}
+
+	/**
+	 * unpacks a code of pack without a dictionary.
+	 *
+	 * @param code a code returned by pack
+	 * @return the id, in upper case, or null if the code is not one of the packed shapes
+	 */
+	public static String unpack(long code) {
+		if(Long.compareUnsigned(code, LONG_REVIEW_IDS) < 0) {
+			char[] chars = new char[14];
+			chars[0] = 'R';
+			chars[1] = (char) ('1' + Long.divideUnsigned(code, POW_36_12));
+			writeDigits(chars, 2, Long.remainderUnsigned(code, POW_36_12));
+			return new String(chars);
+		}
+
+		if(Long.compareUnsigned(code - LONG_REVIEW_IDS, SHORT_IDS) < 0) {
+			char[] chars = new char[MAX_SHORT_LENGTH];
+			int start = MAX_SHORT_LENGTH;
+			for(long n = code - LONG_REVIEW_IDS + 1; n > 0; n = (n - 1) / 36) {
+				chars[--start] = charOf((int) ((n - 1) % 36));
+			}
+			return new String(chars, start, MAX_SHORT_LENGTH - start);
+		}
+
+		if(Long.compareUnsigned(code - TWELVE_CHAR_IDS, POW_36_11) < 0) {
+			char[] chars = new char[12];
+			chars[0] = 'R';
+			writeDigits(chars, 1, code - TWELVE_CHAR_IDS);
+			return new String(chars);
+		}
+
+		if(Long.compareUnsigned(code - THIRTEEN_CHAR_IDS, THIRTEEN_CHAR_FIRST_DIGITS * POW_36_11) < 0) {
+			char[] chars = new char[13];
+			chars[0] = 'R';
+			writeDigits(chars, 1, code - THIRTEEN_CHAR_IDS);
+			return new String(chars);
+		}
+		return null;
+	}
+
+	/**
+	 * @param code a code returned by pack or by encode of this IdCodec
+	 * @return the id, in upper case
+	 */
+	public String decode(long code) {
+		String id = unpack(code);
+		if(id != null)
+			return id;
+
+		if(Long.compareUnsigned(code, DICTIONARY_BASE) >= 0) {
+			synchronized(dictionary) {
+				int index = (int) (code - DICTIONARY_BASE);
+				if(index < dictionary.size())
+					return dictionary.get(index);
+			}
+		}
+		throw new IllegalArgumentException("Unknown id code " + Long.toHexString(code));
+	}
+
+	/**
+	 * @return the number of ids that could not be packed and are kept in the dictionary
+	 */
+	public int getDictionarySize() {
+		synchronized(dictionary) {
+			return dictionary.size();
+		}
+	}
+}
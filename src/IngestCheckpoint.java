@@ -0,0 +1,172 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * A snapshot of an ingest run, taken every few rows so that a crashed or cancelled run can resume
+ * from the byte offset of the snapshot instead of reading the whole file again.
+ *
+ * It holds the byte offset right after the last ingested row, the header of the file,
+ * the length of the quarantine file, the IdCodec of the product_ids that key the product table
+ * and all the aggregates built from the rows before the offset.
+ * Everything that grows with every row is left out, as it would make every checkpoint longer than the last:
+ * the per-review maps (the CustomerReviews and the review_ids of every product, with the IdCodec of the review_ids)
+ * and the NearDuplicateDetector. A resumed run only has the reviews from the checkpoint on in them,
+ * and only checks those for near-duplicates.
+ * It is written with Java serialization to a temporary file that then replaces the previous checkpoint,
+ * so a crash while writing never leaves a broken checkpoint behind. The temporary file a crash leaves behind
+ * is deleted when the checkpoint is read.
+ *
+ * @author kaungyang
+ *
+ */
+public class IngestCheckpoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String header;
+	private final long offset;
+	private final long quarantineLength;
+	private final long[] rejectCounts;
+	private final int totalReviews;
+	private final IdCodec idCodec;
+	private final ProductStatsTable productStats;
+	private final CustomerStatsTable customerStats;
+	private final ConcurrentStringCounter uniqueWordCounts;
+	private final BoundedStringCounter wordSketch;
+	private final Map<MemoryGovernor.Degradation, Long> degradations;
+	private final ReviewTimeSeries reviewTimeSeries;
+	private final BoundedStringCounter bigramCounts;
+	private final BoundedStringCounter trigramCounts;
+
+	private IngestCheckpoint(Builder builder) {
+		this.header = builder.header;
+		this.offset = builder.offset;
+		this.quarantineLength = builder.quarantineLength;
+		this.rejectCounts = builder.rejectCounts;
+		this.totalReviews = builder.totalReviews;
+		this.idCodec = builder.idCodec;
+		this.productStats = builder.productStats;
+		this.customerStats = builder.customerStats;
+		this.uniqueWordCounts = builder.uniqueWordCounts;
+		this.wordSketch = builder.wordSketch;
+		this.degradations = builder.degradations;
+		this.reviewTimeSeries = builder.reviewTimeSeries;
+		this.bigramCounts = builder.bigramCounts;
+		this.trigramCounts = builder.trigramCounts;
+	}
+
+	/* getters for IngestCheckpoint Class */
+	public String getHeader() { return this.header; }
+	public long getOffset() { return this.offset; }
+	public long getQuarantineLength() { return this.quarantineLength; }
+	public long[] getRejectCounts() { return this.rejectCounts; }
+	public int getTotalReviews() { return this.totalReviews; }
+	public IdCodec getIdCodec() { return this.idCodec; }
+	public ProductStatsTable getProductStats() { return this.productStats; }
+	public CustomerStatsTable getCustomerStats() { return this.customerStats; }
+	public ConcurrentStringCounter getUniqueWordCounts() { return this.uniqueWordCounts; }
+	public BoundedStringCounter getWordSketch() { return this.wordSketch; }
+	public Map<MemoryGovernor.Degradation, Long> getDegradations() { return this.degradations; }
+	public ReviewTimeSeries getReviewTimeSeries() { return this.reviewTimeSeries; }
+	public BoundedStringCounter getBigramCounts() { return this.bigramCounts; }
+	public BoundedStringCounter getTrigramCounts() { return this.trigramCounts; }
+
+	/**
+	 * @param dataFile the data set
+	 * @return the checkpoint file of the data set, next to it
+	 */
+	public static File checkpointFileOf(File dataFile) {
+		return new File(dataFile.getPath() + ".checkpoint");
+	}
+
+	/* the file the checkpoint is written to before it replaces the checkpoint file */
+	private static File tempFileOf(File checkpointFile) {
+		return new File(checkpointFile.getPath() + ".tmp");
+	}
+
+	/**
+	 * writes the checkpoint. no ingest thread may update the aggregates while it is written.
+	 *
+	 * @param checkpointFile the file to write to, replaced atomically
+	 */
+	public void write(File checkpointFile) throws IOException {
+		File tempFile = tempFileOf(checkpointFile);
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20))) {
+			out.writeObject(this);
+		}
+		Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * reads the checkpoint of a data set, if it can be resumed,
+	 * and deletes the half-written temporary file of a run that crashed while writing one.
+	 *
+	 * @param checkpointFile the checkpoint file
+	 * @param dataFile the data set, which must still be at least as long as the checkpoint offset
+	 * @return the checkpoint, or null if there is none or it does not belong to the data set anymore
+	 */
+	public static IngestCheckpoint read(File checkpointFile, File dataFile) {
+		File tempFile = tempFileOf(checkpointFile);
+		if(tempFile.exists() && !tempFile.delete()) {
+			System.out.println("Could not delete " + tempFile.getName() + ", it is overwritten by the next checkpoint.");
+		}
+		if(!checkpointFile.exists())
+			return null;
+
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(checkpointFile), 1 << 20))) {
+			IngestCheckpoint checkpoint = (IngestCheckpoint) in.readObject();
+			if(dataFile.length() < checkpoint.getOffset() || !checkpoint.getHeader().equals(readHeader(dataFile))) {
+				System.out.println("Ignoring " + checkpointFile.getName() + ", the data set has changed since.");
+				return null;
+			}
+			return checkpoint;
+		} catch(IOException | ClassNotFoundException | ClassCastException ex) {
+			System.out.println("Ignoring " + checkpointFile.getName() + ": " + ex.getMessage());
+			return null;
+		}
+	}
+
+	private static String readHeader(File dataFile) throws IOException {
+		try (TsvLineReader reader = new TsvLineReader(dataFile, 0, false)) {
+			return reader.readLine();
+		}
+	}
+
+	/**
+	 * Builder class for IngestCheckpoint
+	 */
+	public static class Builder {
+		private String header = "";
+		private long offset = 0;
+		private long quarantineLength = 0;
+		private long[] rejectCounts = new long[0];
+		private int totalReviews = 0;
+		private IdCodec idCodec;
+		private ProductStatsTable productStats;
+		private CustomerStatsTable customerStats;
+		private ConcurrentStringCounter uniqueWordCounts;
+		private BoundedStringCounter wordSketch;
+		private Map<MemoryGovernor.Degradation, Long> degradations;
+		private ReviewTimeSeries reviewTimeSeries;
+		private BoundedStringCounter bigramCounts;
+		private BoundedStringCounter trigramCounts;
+
+		public Builder header(String var) { this.header = var; return this; }
+		public Builder offset(long var) { this.offset = var; return this; }
+		public Builder quarantineLength(long var) { this.quarantineLength = var; return this; }
+		public Builder rejectCounts(long[] var) { this.rejectCounts = var; return this; }
+		public Builder totalReviews(int var) { this.totalReviews = var; return this; }
+		public Builder idCodec(IdCodec var) { this.idCodec = var; return this; }
+		public Builder productStats(ProductStatsTable var) { this.productStats = var; return this; }
+		public Builder customerStats(CustomerStatsTable var) { this.customerStats = var; return this; }
+		public Builder uniqueWordCounts(ConcurrentStringCounter var) { this.uniqueWordCounts = var; return this; }
+		public Builder wordSketch(BoundedStringCounter var) { this.wordSketch = var; return this; }
+		public Builder degradations(Map<MemoryGovernor.Degradation, Long> var) { this.degradations = var; return this; }
+		public Builder reviewTimeSeries(ReviewTimeSeries var) { this.reviewTimeSeries = var; return this; }
+		public Builder bigramCounts(BoundedStringCounter var) { this.bigramCounts = var; return this; }
+		public Builder trigramCounts(BoundedStringCounter var) { this.trigramCounts = var; return this; }
+		public IngestCheckpoint build() { return new IngestCheckpoint(this); }
+	}
+}
@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of lines read from a file, with the byte offset where every line starts,
+ * so that a bad line can be reported by its offset.
+ *
+ * @author kaungyang
+ *
+ */
+public class LineBatch {
+
+	private final List<String> lines;
+	private long[] offsets;
+
+	public LineBatch(int capacity) {
+		this.lines = new ArrayList<>(capacity);
+		this.offsets = new long[Math.max(capacity, 1)];
+	}
+
+	public void add(String line, long offset) {
+		if(lines.size() == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		offsets[lines.size()] = offset;
+		lines.add(line);
+	}
+
+	public String getLine(int i) { return lines.get(i); }
+	public long getOffset(int i) { return offsets[i]; }
+	public int size() { return lines.size(); }
+	public boolean isEmpty() { return lines.isEmpty(); }
+}
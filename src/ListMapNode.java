@@ -1,17 +1,19 @@
-import java.util.List;
+import java.io.Serializable;
 import java.util.Map;
 
-public class ListMapNode {
+public class ListMapNode implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
 	 
-	private List<String> first; 
+	private LongArrayList first; 
 	private Map<String, Integer> second; 
 	
-	public ListMapNode(List<String> first, Map<String, Integer> second) {
+	public ListMapNode(LongArrayList first, Map<String, Integer> second) {
 		this.first = first;
 		this.second = second; 
 	} 
 	
-	public List<String> first() {
+	public LongArrayList first() {
 		return first; 
 	}
 	
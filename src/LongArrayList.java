@@ -0,0 +1,70 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive longs, e.g. the packed review_ids of a product (see IdCodec),
+ * at 8 bytes per element instead of a reference to a boxed Long or a String.
+ * Not thread-safe.
+ *
+ * @author kaungyang
+ *
+ */
+public class LongArrayList implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private long[] elements;
+	private int size = 0;
+
+	public LongArrayList() {
+		this(4);
+	}
+
+	/**
+	 * @param capacity the number of elements expected, to avoid growing
+	 */
+	public LongArrayList(int capacity) {
+		elements = new long[Math.max(1, capacity)];
+	}
+
+	public void add(long value) {
+		if(size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+		}
+		elements[size++] = value;
+	}
+
+	public long get(int index) {
+		if(index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+		return elements[index];
+	}
+
+	public boolean contains(long value) {
+		for(int i = 0; i < size; i++) {
+			if(elements[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	public int size() { return size; }
+
+	/** @return a copy of the elements */
+	public long[] toArray() { return Arrays.copyOf(elements, size); }
+
+	/**
+	 * @return a sorted copy of the elements, each only once, for lists that are added to without checking contains
+	 */
+	public long[] toDistinctArray() {
+		long[] sorted = toArray();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			if(i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, distinct);
+	}
+}
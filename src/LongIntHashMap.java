@@ -0,0 +1,131 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to int values with open addressing (linear probing),
+ * for maps with tens of millions of numeric keys (e.g. customer_id to a row of a statistics table).
+ *
+ * Keys and values live in two primitive arrays, so an entry costs about 12 bytes divided by the load factor,
+ * instead of the boxed key, boxed value and node object of a HashMap.
+ * Long.MIN_VALUE marks an empty slot, so that key is kept in a field of its own. Entries cannot be removed.
+ * Not thread-safe.
+ *
+ * @author kaungyang
+ *
+ */
+public class LongIntHashMap implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final static long EMPTY = Long.MIN_VALUE;
+	private final static float LOAD_FACTOR = 0.75f;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+	private int resizeAt;
+	private boolean hasEmptyKey = false;
+	private int emptyKeyValue;
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of entries expected, to avoid resizing
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/* spreads the bits of the key, so that sequential keys do not fill neighbouring slots */
+	private static int slotOf(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @param defaultValue the value to return if the key is not in the map
+	 * @return the value of the key, or defaultValue
+	 */
+	public int get(long key, int defaultValue) {
+		if(key == EMPTY)
+			return hasEmptyKey ? emptyKeyValue : defaultValue;
+		int mask = keys.length - 1;
+		for(int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+			if(keys[slot] == key)
+				return values[slot];
+			if(keys[slot] == EMPTY)
+				return defaultValue;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		if(key == EMPTY)
+			return hasEmptyKey;
+		int mask = keys.length - 1;
+		for(int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+			if(keys[slot] == key)
+				return true;
+			if(keys[slot] == EMPTY)
+				return false;
+		}
+	}
+
+	/**
+	 * @param key the key
+	 * @param value the value of the key
+	 */
+	public void put(long key, int value) {
+		if(key == EMPTY) {
+			if(!hasEmptyKey)
+				size++;
+			hasEmptyKey = true;
+			emptyKeyValue = value;
+			return;
+		}
+
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+		while(keys[slot] != EMPTY) {
+			if(keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if(++size > resizeAt) {
+			resize();
+		}
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		int mask = keys.length - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != EMPTY) {
+				int slot = slotOf(oldKeys[i], mask);
+				while(keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() { return size; }
+}
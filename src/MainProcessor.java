@@ -10,7 +10,11 @@ import javafx.stage.*;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * README
@@ -43,10 +47,33 @@ import java.util.*;
 		]
 		
  * - it builds a CustomerReview HashMap, using review_id as the key for the HashMap
+ * ---- review_id and product_id are packed into longs by IdCodec, the maps are keyed by the longs (ConcurrentLongObjectMap).
  * - it builds a ProductId HashMap that uses the product_id to store two things: 
  * ---- 1) a list of all the customer review list 
  * ---- 2) a HashMap, using the string as the key, to count how many words appear
  * -------- this has been commented out for efficiency purposes.
+ * - it builds a ProductStatsTable with the review count, star histogram, votes and verified purchases of every product
+ * ---- products are ranked by these statistics, the reviews themselves are not needed for the rankings.
+ * - it builds a CustomerStatsTable with the reviews and ratings of every customer, keyed by the numeric customer_id.
+ * - it builds a ReviewTimeSeries with the number of reviews and star ratings per day of every product and category
+ * ---- review_date is parsed to an epoch day, range and rolling-window queries only touch the days in the window.
+ * - it counts the phrases of 2 and 3 words in BoundedStringCounters, which keep at most 1 Million phrases each
+ * ---- (-Dreviews.ngramCapacity), dropping the rarest ones, so the counts of frequent phrases are nearly exact.
+ * - malformed rows are written to <file>.rejects.txt with their byte offset and reason, and the run goes on.
+ * - every 1 Million rows (-Dreviews.checkpointRows) a checkpoint is written to <file>.checkpoint,
+ * ---- uploading the same file after a crash resumes from the last checkpoint.
+ * ---- the checkpoint only holds the aggregates, the CustomerReviews, the review lists of the products
+ * ---- and the near-duplicate check start over.
+ * - the heap is kept within a budget (-Dreviews.heapBudgetMb, 90% of the max heap by default) by the MemoryGovernor.
+ * ---- at 60%, 75% and 90% of the budget it drops the clean review bodies, then the CustomerReviews and the review lists of the products,
+ * ---- then counts the words in a BoundedStringCounter of 100K words (-Dreviews.wordSketchCapacity).
+ * ---- the degradations that were applied are printed with the results.
+ * - run with -Dreviews.exportDir=<directory> to export every word and product, ranked, as CSV and binary files.
+ * ---- see RankingExporter, the rankings are sorted with a radix sort instead of Util.sortHashMapByValues.
+ * - run with -Dreviews.detectDuplicates=true to find copy-pasted or templated reviews (NearDuplicateDetector, MinHash and LSH),
+ * ---- or with -Dreviews.excludeDuplicates=true to also leave their words out of the word and phrase counts.
+ * - lines are read by one thread and handed in batches to a pool of ingest threads (one per core).
+ * ---- all the maps above are concurrent, so the ingest threads update the same aggregates. 
  *  
  * RUNNING THE PROGRAM
  * - it is not recommended to run more than 1 Million data. 
@@ -58,6 +85,10 @@ import java.util.*;
  * ---- amazon_review_electronics_large.tsv (~ 1 Million data)
  *  
  * - screenshot of the run from 1 Million data has been attached. 
+ * - check "Keep following the file for new reviews" before uploading a file that is still being appended to.
+ * ---- TsvTailer polls the file and ingests only the new lines, the results on the window refresh about every second.
+ * - for data sets that do not fit in one heap, run "java ShardCoordinator <file.tsv> [workers] [top K]"
+ * ---- it splits the rows by product_id across several worker JVMs (ShardWorker) and merges their top-K.
  * - most processing methods can be found in the Util.java file. 
  * 
  * ----------------------------------------------------------------------------------------------------
@@ -93,16 +124,43 @@ public class MainProcessor extends Application {
     private Stage primaryStage;
     private Text statusText, resultText;
     private Button uploadButton;
+    private CheckBox followCheckBox;
+    private TsvTailer tailer;
+    private RejectQuarantine quarantine;
+    private volatile long lastRefreshMillis = 0; 
     
     private String[] dataColumns = null; 
+    private String headerLine = null; 
     private static int numberOfDataColumns = 0; 
     private static boolean isFirstLine = true; 
-    private static int totalReviews = 0; 
+    private static AtomicInteger totalReviews = new AtomicInteger(); 
     
+    private final static int INGEST_THREADS = Runtime.getRuntime().availableProcessors(); 
+    private final static int INGEST_BATCH_SIZE = 10000; 
+    private final static long REFRESH_INTERVAL_MS = 1000; 
+    private final static int MIN_REVIEWS_TO_RANK = 10; 
+    private final static long CHECKPOINT_ROWS = Long.getLong("reviews.checkpointRows", 1000000); 
+    private final static int NGRAM_CAPACITY = Integer.getInteger("reviews.ngramCapacity", 1000000); 
+    private final static long HEAP_BUDGET = Long.getLong("reviews.heapBudgetMb", Runtime.getRuntime().maxMemory() * 9 / 10 >> 20) << 20; 
+    private final static int WORD_SKETCH_CAPACITY = Integer.getInteger("reviews.wordSketchCapacity", 100000); 
+    private final static String EXPORT_DIR = System.getProperty("reviews.exportDir"); 
+    private final static boolean EXCLUDE_DUPLICATES = Boolean.getBoolean("reviews.excludeDuplicates"); 
+    private final static boolean DETECT_DUPLICATES = EXCLUDE_DUPLICATES || Boolean.getBoolean("reviews.detectDuplicates"); 
+    private final static double DUPLICATE_THRESHOLD = Double.parseDouble(System.getProperty("reviews.duplicateThreshold", "0.8")); 
     
-    private Map< String, ListMapNode > productIdMap = new HashMap<>(); 
-    private Map< String, CustomerReview> customerReviewMap= new HashMap<>(); 
-    private Map< String, Integer> uniqueWordCounts = new HashMap<>(); 
+    private IdCodec idCodec = new IdCodec(); // encodes the product_ids of the tables, in the checkpoint 
+    private IdCodec reviewIdCodec = new IdCodec(); // encodes the review_ids of the per-review maps, which start over on resume 
+    private ConcurrentLongObjectMap<ListMapNode> productIdMap = new ConcurrentLongObjectMap<>(); 
+    private ConcurrentLongObjectMap<CustomerReview> customerReviewMap = new ConcurrentLongObjectMap<>(); 
+    private ConcurrentStringCounter uniqueWordCounts = new ConcurrentStringCounter(); 
+    private volatile BoundedStringCounter wordSketch = null; // counts the words instead of uniqueWordCounts once SKETCH_WORD_COUNTS is applied 
+    private final MemoryGovernor memoryGovernor = new MemoryGovernor(HEAP_BUDGET); 
+    private ProductStatsTable productStats = new ProductStatsTable(idCodec); 
+    private CustomerStatsTable customerStats = new CustomerStatsTable(); 
+    private ReviewTimeSeries reviewTimeSeries = new ReviewTimeSeries(); 
+    private BoundedStringCounter bigramCounts = new BoundedStringCounter(NGRAM_CAPACITY); 
+    private BoundedStringCounter trigramCounts = new BoundedStringCounter(NGRAM_CAPACITY); 
+    private NearDuplicateDetector duplicateDetector = DETECT_DUPLICATES ? new NearDuplicateDetector(DUPLICATE_THRESHOLD) : null; 
     
     
     private final static Font RESULT_FONT = Font.font("Lato", 24);
@@ -124,9 +182,11 @@ public class MainProcessor extends Application {
         uploadLabel.setFont(INPUT_FONT);
         uploadButton = new Button("Upload data");
         uploadButton.setOnAction(this::processDataUpload);
+        followCheckBox = new CheckBox("Keep following the file for new reviews");
 
         uploadBox.getChildren().add(uploadLabel);
         uploadBox.getChildren().add(uploadButton);
+        uploadBox.getChildren().add(followCheckBox);
         primaryBox.getChildren().add(uploadBox);
 
         VBox resultsBox = new VBox();
@@ -157,174 +217,486 @@ public class MainProcessor extends Application {
         FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter("TSV files (*.tsv)", "*.tsv");
         fileChooser.getExtensionFilters().add(extFilter);
         File file = fileChooser.showOpenDialog(primaryStage);
-        parseFile(file);
+        stopFollowing(); 
+        parseFile(file, followCheckBox.isSelected());
 
     }
     
+    @Override
+    public void stop() {
+    	stopFollowing(); 
+    }
+    
     public String[] getDataColumns() { return this.dataColumns; }
     
     /**
-     * this method parses a single line using the delimiter provided.
-     * it also parses the first line as a header. 
+     * reads the file line by line and hands the lines in batches of INGEST_BATCH_SIZE 
+     * to the ingest threads. at most 2 batches per thread are in flight at once. 
      * 
-     * @param line the line to be parsed
-     * @param delimiter the delimiter to use
-     * @return String array of size 2, containing the CustomerReview's id and number of orders.
-     * @throws ExpectedLessDataException 
-     */
-    private static String[] parseLine(String line, String delimiter) throws CustomExceptions.ExpectedLessDataColumnsException {
-    	String[] data = null; 
-		Scanner lineScan = new Scanner(line); 
-    	lineScan.useDelimiter(delimiter); 
-    	
-    	if(isFirstLine) {
-    		List<String> dataColumns = new ArrayList<String>();
-    		while(lineScan.hasNext()) {
-    			String s = lineScan.next(); 
-    			dataColumns.add(s); 
-    		}
-    		
-    		return dataColumns.toArray(new String[0]); 
-    	}
-    	
-		int dataCount = 0;
-		data = new String[numberOfDataColumns]; 
-		
-		while(lineScan.hasNext()) { 
-			if( dataCount < numberOfDataColumns ) {
-				String s = lineScan.next();
-    			data[dataCount] = s; 
-    			dataCount++;
-			} else {				
-				throw new CustomExceptions().new ExpectedLessDataColumnsException(); // more than two columns in the data  
-			}  
-		}
-   
-    	return data;
-    }
-
-    /**
+     * malformed rows do not stop the run, they are written to the quarantine file (see RejectQuarantine). 
+     * every CHECKPOINT_ROWS rows, the ingest threads are drained and an IngestCheckpoint is written, 
+     * and if the file has a checkpoint from a run that did not finish, reading resumes from it. 
+     * after every batch, the MemoryGovernor checks the heap and the due degradations are applied. 
      * 
      * @param file the file to read in. 
+     * @param follow whether to keep following the file for appended reviews after it has been read 
      */
-    private void parseFile(File file) {
-    	ArrayList<CustomerReview> customerReviewOrderList = new ArrayList<CustomerReview>(); 
-    	String[] customerReviewData = null;
-    	Scanner fileScan = null; 
+    private void parseFile(File file, boolean follow) {
+    	TsvLineReader fileScan = null; 
+    	ExecutorService ingestPool = null; 
     	try { 
     		
     		if(file == null) {
     			throw new FileNotFoundException(); 
     		}
     	
+    		memoryGovernor.start(); 
+    		File checkpointFile = IngestCheckpoint.checkpointFileOf(file); 
+    		IngestCheckpoint checkpoint = IngestCheckpoint.read(checkpointFile, file); 
+    		
     		isFirstLine = true; 
+    		long startOffset = 0; 
+    		if(checkpoint != null) {
+    			restoreCheckpoint(checkpoint); 
+    			startOffset = checkpoint.getOffset(); 
+    			System.out.println("Resuming from " + checkpointFile.getName() + " at byte " + startOffset 
+    					+ " (" + totalReviews + " reviews)"); 
+    		}
+    		quarantine = new RejectQuarantine(RejectQuarantine.quarantineFileOf(file), 
+    				checkpoint == null ? 0 : checkpoint.getQuarantineLength()); 
+    		if(checkpoint != null) {
+    			quarantine.setCounts(checkpoint.getRejectCounts()); 
+    		}
     		
-    		fileScan = new Scanner(file); 
-    		while(fileScan.hasNext()) {
+    		fileScan = new TsvLineReader(file, startOffset, follow); 
+    		ingestPool = Executors.newFixedThreadPool(INGEST_THREADS); 
+    		Deque<Future<Void>> pendingBatches = new ArrayDeque<>(); 
+    		LineBatch batch = new LineBatch(INGEST_BATCH_SIZE); 
+    		long rowsSinceCheckpoint = 0; 
+    		
+    		String line; 
+    		while((line = fileScan.readLine()) != null) {
     			
     			if(isFirstLine) {
-    				String headerLine = fileScan.nextLine();
-    				dataColumns = parseLine(headerLine, "\t");
+    				headerLine = line; 
+    				dataColumns = Util.parseHeader(line, "\t");
     				numberOfDataColumns = dataColumns.length; 
     				isFirstLine = false; 
     			} else {
-    				String line = fileScan.nextLine(); 
-            		customerReviewData = parseLine(line, "\t");
-            		
-            		// build customerReviewData object
-            		CustomerReview newReview = Util.buildCustomerReview(customerReviewData);
-            		if(newReview != null) {
-            			totalReviews++; 
-                		populateMaps(newReview); 
-            		}
+    				batch.add(line, fileScan.getLineOffset()); 
+    				if(memoryGovernor.isCollectedOverThreshold() && memoryGovernor.getDueDegradation() != null) {
+    					// a collection of the JVM left the heap over the threshold, no need to wait for the batch to fill 
+    					while(!pendingBatches.isEmpty()) {
+    						awaitBatch(pendingBatches.removeFirst()); 
+    					}
+    					degradeWhileDue(); 
+    				}
+    				if(batch.size() == INGEST_BATCH_SIZE) {
+    					submitBatch(ingestPool, pendingBatches, batch); 
+    					batch = new LineBatch(INGEST_BATCH_SIZE); 
+    					
+    					if(memoryGovernor.getDueDegradation() != null) {
+    						while(!pendingBatches.isEmpty()) {
+    							awaitBatch(pendingBatches.removeFirst()); 
+    						}
+    						degradeWhileDue(); 
+    					}
+    					
+    					rowsSinceCheckpoint += INGEST_BATCH_SIZE; 
+    					if(rowsSinceCheckpoint >= CHECKPOINT_ROWS) {
+    						while(!pendingBatches.isEmpty()) {
+    							awaitBatch(pendingBatches.removeFirst()); 
+    						}
+    						writeCheckpoint(checkpointFile, fileScan.getOffset()); 
+    						rowsSinceCheckpoint = 0; 
+    					}
+    				}
     			}
-    		}    		
-//    		Util.printProductIdMap(productIdMap, 10); 
-    		System.out.println("There are: " + totalReviews + " reviews");
-    		System.out.println("These are the 10 most frequent words found across all products:");
-    		String uniqueWordCountString = Util.getStringCountMapString(uniqueWordCounts, 10);
-    		System.out.println(uniqueWordCountString); 
+    		}
+    		if(!batch.isEmpty()) {
+    			submitBatch(ingestPool, pendingBatches, batch); 
+    		}
+    		while(!pendingBatches.isEmpty()) {
+    			awaitBatch(pendingBatches.removeFirst()); 
+    		}
+    		quarantine.flush(); 
+    		Files.deleteIfExists(checkpointFile.toPath()); // finished, nothing to resume 
     		
-    		System.out.println("These are the 10 most reviewed products:"); 
-    		String mostReviewedProducts = Util.getMostReviewedProducts(productIdMap, customerReviewMap, 10);
-    		System.out.println(mostReviewedProducts); 
+    		printResults(); 
+    		if(EXPORT_DIR != null) {
+    			exportRankings(new File(EXPORT_DIR), file.getName()); 
+    		}
     		
+    		if(follow) {
+    			startFollowing(file, fileScan.getOffset()); 
+    		}
     		
-    	} catch(NumberFormatException ex) {
-    		System.out.println(ex.getMessage()); 
-    	} catch(CustomExceptions.ExpectedLessDataColumnsException ex) {
-    		System.out.println(ex.getMessage()); 
-    	} catch(FileNotFoundException ex) {
+    	} catch(IOException ex) {
     		System.out.println(ex.getMessage()); 
      	} finally {
+     		if(ingestPool != null) {
+     			ingestPool.shutdownNow(); 
+     		}
+     		if(tailer == null) {
+     			closeQuarantine(); 
+     			memoryGovernor.stop(); 
+     		}
      		if(fileScan != null) {
-     			fileScan.close();
+     			try {
+     				fileScan.close();
+     			} catch(IOException ex) {
+     				System.out.println(ex.getMessage()); 
+     			}
      			System.out.println("Done. Goodbye!"); 
      		}
      	}
     }
     
     /**
-     * 
+     * writes a checkpoint of everything ingested up to the offset. the ingest threads must be idle. 
+     */
+    private void writeCheckpoint(File checkpointFile, long offset) throws IOException {
+    	new IngestCheckpoint.Builder()
+    		.header(headerLine)
+    		.offset(offset)
+    		.quarantineLength(quarantine.flush())
+    		.rejectCounts(quarantine.getCounts())
+    		.totalReviews(totalReviews.get())
+    		.idCodec(idCodec)
+    		.productStats(productStats)
+    		.customerStats(customerStats)
+    		.uniqueWordCounts(uniqueWordCounts)
+    		.wordSketch(wordSketch)
+    		.degradations(memoryGovernor.getApplied())
+    		.reviewTimeSeries(reviewTimeSeries)
+    		.bigramCounts(bigramCounts)
+    		.trigramCounts(trigramCounts)
+    		.build()
+    		.write(checkpointFile); 
+    }
+    
+    /**
+     * replaces all the aggregates with the ones of the checkpoint, and parses its header. 
      */
-    private void populateMaps(CustomerReview cr) {
+    private void restoreCheckpoint(IngestCheckpoint checkpoint) {
+    	headerLine = checkpoint.getHeader(); 
+    	dataColumns = Util.parseHeader(headerLine, "\t"); 
+    	numberOfDataColumns = dataColumns.length; 
+    	isFirstLine = false; 
     	
-    	String productId = cr.getProductId();
-    	String reviewId = cr.getReviewId();
-    	String reviewBody = cr.getReviewBody();
-    	String[] wordArray = Util.getCleanWordArray(reviewBody);
-    	cr.setCleanReviewBody(wordArray);
+    	totalReviews.set(checkpoint.getTotalReviews()); 
+    	idCodec = checkpoint.getIdCodec(); 
+    	productIdMap.clear(); // not in the checkpoint, only the reviews from its offset on are kept 
+    	customerReviewMap.clear(); 
+    	reviewIdCodec = new IdCodec(); 
+    	productStats = checkpoint.getProductStats(); 
+    	customerStats = checkpoint.getCustomerStats(); 
+    	uniqueWordCounts = checkpoint.getUniqueWordCounts(); 
+    	wordSketch = checkpoint.getWordSketch(); 
+    	memoryGovernor.setApplied(checkpoint.getDegradations()); 
+    	reviewTimeSeries = checkpoint.getReviewTimeSeries(); 
+    	bigramCounts = checkpoint.getBigramCounts(); 
+    	trigramCounts = checkpoint.getTrigramCounts(); 
+    	// not in the checkpoint either, the reviews before it are not checked 
+    	duplicateDetector = DETECT_DUPLICATES ? new NearDuplicateDetector(DUPLICATE_THRESHOLD) : null; 
+    }
+    
+    private void closeQuarantine() {
+    	if(quarantine != null) {
+    		try {
+    			quarantine.close(); 
+    		} catch(IOException ex) {
+    			System.out.println(ex.getMessage()); 
+    		}
+    		quarantine = null; 
+    	}
+    }
+    
+    /**
+     * prints the results of everything that has been read so far 
+     */
+    private void printResults() {
+//    	Util.printProductIdMap(productIdMap, idCodec, reviewIdCodec, 10); 
+    	System.out.println("There are: " + totalReviews + " reviews");
+    	System.out.println(quarantine); 
+    	System.out.println(memoryGovernor); 
+    	System.out.println(wordSketch == null ? "These are the 10 most frequent words found across all products:" 
+    			: "These are the 10 most frequent words found across all products (counts may be low by at most " 
+    			+ wordSketch.getMaxError() + "):");
+    	String uniqueWordCountString = Util.getStringCountMapString(getTopWordCounts(10), 10, getWordCount());
+    	System.out.println(uniqueWordCountString); 
     	
-    	if(!productIdMap.containsKey(productId)) { // new
-    		List<String> newReviewIdList = new ArrayList<>();  
-    		newReviewIdList.add(reviewId);
-    		
-    		Map<String, Integer> newStringCountMap = new HashMap<>();
-    		/* this has been commented out to save memory while running */
-    		// populateStringCount(newStringCountMap, wordArray); 
-    		
-    		/* 
-    		 * ListMapNode contains a list of all the reviews in the first parameter 
-    		 * and the string-count HashMap in the second 
-    		 */
-    		ListMapNode newNode = new ListMapNode(newReviewIdList, newStringCountMap); 
-
-    		productIdMap.put(productId, newNode);
-    		
-    	} else {
-    		ListMapNode tempNode = productIdMap.get(productId);
-    		List<String> tempReviewIdList = tempNode.first();
-    		if(tempReviewIdList == null) { tempReviewIdList = new ArrayList<>(); }
-    		
-			if(!tempReviewIdList.contains(reviewId)) {
-				tempReviewIdList.add(reviewId);
-			}
-			
-			// /* this has been commented out to save memory while running */
-			// Map<String, Integer> tempStringCountMap = tempNode.second();
-			// populateStringCount(tempStringCountMap, wordArray);     		
-    	} 
+    	if(duplicateDetector != null) {
+    		System.out.println(duplicateDetector.getDuplicateCount() + " of " + duplicateDetector.getCheckedCount() 
+    				+ " reviews are near-duplicates of an earlier review (estimated Jaccard similarity of at least " 
+    				+ duplicateDetector.getThreshold() + ")" 
+    				+ (EXCLUDE_DUPLICATES ? ", their words are left out of the word and phrase counts." : ".")); 
+    		System.out.println("These are the 10 reviews with the most near-duplicates:"); 
+    		System.out.println(Util.getStringCountMapString(duplicateDetector.getCopiesOfOriginals(), 10)); 
+    	}
     	
-    	populateStringCount(uniqueWordCounts, wordArray); 
-    	customerReviewMap.put(reviewId, cr);
+    	System.out.println("These are the 10 most frequent phrases of two words (counts may be low by at most " 
+    			+ bigramCounts.getMaxError() + "):");
+    	System.out.println(Util.getStringCountMapString(bigramCounts.getTopCounts(10), 10)); 
+    	System.out.println("These are the 10 most frequent phrases of three words (counts may be low by at most " 
+    			+ trigramCounts.getMaxError() + "):");
+    	System.out.println(Util.getStringCountMapString(trigramCounts.getTopCounts(10), 10)); 
+    	
+    	System.out.println("These are the 10 most reviewed products:"); 
+    	String mostReviewedProducts = Util.getTopProductsString(productStats, ProductStatsTable.Metric.REVIEW_COUNT, 10, 1);
+    	System.out.println(mostReviewedProducts); 
+    	
+    	System.out.println("These are the 10 highest rated products with at least " + MIN_REVIEWS_TO_RANK + " reviews:"); 
+    	System.out.println(Util.getTopProductsString(productStats, ProductStatsTable.Metric.MEAN_RATING, 10, MIN_REVIEWS_TO_RANK)); 
+    	
+    	System.out.println("These are the 10 products with the most helpful reviews, with at least " + MIN_REVIEWS_TO_RANK + " reviews:"); 
+    	System.out.println(Util.getTopProductsString(productStats, ProductStatsTable.Metric.HELPFUL_RATIO, 10, MIN_REVIEWS_TO_RANK)); 
+    	
+    	System.out.println("These are the 10 customers who wrote the most reviews:"); 
+    	System.out.println(Util.getTopCustomersString(customerStats, CustomerStatsTable.Metric.REVIEW_COUNT, 10, 1)); 
+    	
+    	System.out.println("These are the reviews per month of the last 12 months, by category:"); 
+    	System.out.println(Util.getCategoryTrendString(reviewTimeSeries, 12, 5)); 
     }
-        
+    
     /**
+     * exports the full word ranking and product table to EXPORT_DIR, in both formats of RankingExporter: 
+     * <data set>.words.csv, <data set>.words.bin, <data set>.products.csv and <data set>.products.bin 
      * 
-     * @param map
-     * @param strArr
+     * @param exportDir the directory to write to 
+     * @param dataSetName the name of the data set, the start of the file names 
      */
-    private void populateStringCount(Map<String, Integer> map, String[] strArr) {
-    	for(String s: strArr) {
-    		if(!map.containsKey(s)) { // if a new word
-    			map.put(s, 1); 
-    		} else { //if not a new word
-    			int num = map.get(s);
-    			map.put(s, num + 1); 
-    		}		
+    private void exportRankings(File exportDir, String dataSetName) throws IOException {
+    	long start = System.nanoTime(); 
+    	BoundedStringCounter sketch = wordSketch; 
+    	Map<String, Integer> counts = sketch == null ? uniqueWordCounts.toMap() : sketch.getTopCounts(sketch.size()); 
+    	String[] strings = new String[counts.size()]; 
+    	int[] countArray = new int[counts.size()]; 
+    	int i = 0; 
+    	for(Map.Entry<String, Integer> entry: counts.entrySet()) {
+    		strings[i] = entry.getKey(); 
+    		countArray[i++] = entry.getValue(); 
     	}
+    	
+    	Files.createDirectories(exportDir.toPath()); 
+    	RankingExporter exporter = new RankingExporter(INGEST_THREADS); 
+    	for(RankingExporter.Format format: RankingExporter.Format.values()) {
+    		exporter.exportCounts(strings, countArray, new File(exportDir, dataSetName + ".words" + format.getExtension()), format); 
+    		exporter.exportProducts(productStats, new File(exportDir, dataSetName + ".products" + format.getExtension()), format); 
+    	}
+    	System.out.println("Exported " + strings.length + " words and " + productStats.size() + " products to " + exportDir 
+    			+ " in " + (System.nanoTime() - start) / 1000000 + " ms"); 
+    }
+    
+    /**
+     * starts following the file from the offset: appended lines are ingested on the tailer's thread, 
+     * and the top words and products on the window are refreshed at most every REFRESH_INTERVAL_MS, 
+     * and whenever the tailer has caught up with the file. 
+     * 
+     * @param file the file that has been read 
+     * @param offset the byte offset right after the last line that has been read 
+     */
+    private void startFollowing(File file, long offset) throws IOException {
+    	tailer = new TsvTailer(file, offset, lines -> {
+    		ingestLines(lines); 
+    		degradeWhileDue(); // the tailer's thread is the only one ingesting 
+    		if(System.currentTimeMillis() - lastRefreshMillis >= REFRESH_INTERVAL_MS) {
+    			refreshResultText(); 
+    		}
+    	}, this::refreshResultText); 
+    	tailer.start(); 
+    	refreshResultText(); 
+    	System.out.println("Following " + file.getName() + " for new reviews..."); 
     }
     
+    private void stopFollowing() {
+    	if(tailer != null) {
+    		tailer.stop(); 
+    		tailer = null; 
+    	}
+    	closeQuarantine(); 
+    	memoryGovernor.stop(); 
+    }
+    
+    /**
+     * shows the top words and products on the window. can be called from any thread. 
+     */
+    private void refreshResultText() {
+    	lastRefreshMillis = System.currentTimeMillis(); 
+    	String results = "There are: " + totalReviews + " reviews\n" 
+    			+ "The 10 most frequent words:" + Util.getStringCountMapString(getTopWordCounts(10), 10, getWordCount()) 
+    			+ "The 10 most reviewed products:" + Util.getTopProductsString(productStats, ProductStatsTable.Metric.REVIEW_COUNT, 10, 1); 
+    	Platform.runLater(() -> {
+    		resultText.setText(results); 
+    		resultText.setVisible(true); 
+    	}); 
+    }
+    
+    /**
+     * @param numOfWords the number of words to return 
+     * @return the numOfWords most frequent words, from the sketch once SKETCH_WORD_COUNTS is applied 
+     */
+    private Map<String, Integer> getTopWordCounts(int numOfWords) {
+    	BoundedStringCounter sketch = wordSketch; 
+    	return sketch == null ? uniqueWordCounts.getTopCounts(numOfWords) : sketch.getTopCounts(numOfWords); 
+    }
+    
+    /**
+     * @return the number of different words counted, by the sketch once SKETCH_WORD_COUNTS is applied 
+     */
+    private int getWordCount() {
+    	BoundedStringCounter sketch = wordSketch; 
+    	return sketch == null ? uniqueWordCounts.size() : sketch.size(); 
+    }
+    
+    /**
+     * applies the degradations that are due one at a time, collecting after each one, 
+     * so the next one is only applied if the heap is still over its threshold without the garbage of this one. 
+     * no other thread may be ingesting. 
+     */
+    private void degradeWhileDue() {
+    	MemoryGovernor.Degradation degradation; 
+    	while((degradation = memoryGovernor.getDueDegradation()) != null) {
+    		switch(degradation) {
+    			case DROP_CLEAN_REVIEW_BODIES: 
+    				customerReviewMap.forEach((reviewId, review) -> review.clearCleanReviewBody()); 
+    				break; 
+    			case DROP_CUSTOMER_REVIEWS: 
+    				customerReviewMap.clear(); 
+    				productIdMap.clear(); 
+    				reviewIdCodec = new IdCodec(); // its dictionary only holds the review_ids of the maps 
+    				break; 
+    			case SKETCH_WORD_COUNTS: 
+    				BoundedStringCounter sketch = new BoundedStringCounter(WORD_SKETCH_CAPACITY); 
+    				uniqueWordCounts.forEach((word, count) -> sketch.add(word, (int) Math.min(count, Integer.MAX_VALUE))); 
+    				uniqueWordCounts.clear(); 
+    				wordSketch = sketch; 
+    				break; 
+    		}
+    		memoryGovernor.apply(degradation, totalReviews.get()); 
+    		System.out.println("The heap reached " + Math.round(degradation.getBudgetShare() * 100) + "% of its budget, " 
+    				+ degradation.getDescription() + " at " + totalReviews + " reviews."); 
+    		memoryGovernor.collect(); 
+    	}
+    }
+    
+    /**
+     * submits a batch of lines to the ingest threads. 
+     * if too many batches are already in flight, waits for the oldest one first 
+     * so that the reader cannot run too far ahead of the ingest threads. 
+     */
+    private void submitBatch(ExecutorService ingestPool, Deque<Future<Void>> pendingBatches, LineBatch batch) {
+    	if(pendingBatches.size() >= INGEST_THREADS * 2) {
+    		awaitBatch(pendingBatches.removeFirst()); 
+    	}
+    	pendingBatches.addLast(ingestPool.submit(() -> { ingestLines(batch); return null; })); 
+    }
+    
+    /**
+     * waits for a batch to finish, and rethrows the unexpected errors of the ingest thread  
+     */
+    private void awaitBatch(Future<Void> pendingBatch) {
+    	try {
+    		pendingBatch.get(); 
+    	} catch(InterruptedException ex) {
+    		Thread.currentThread().interrupt(); 
+    		throw new CancellationException("Interrupted while waiting for ingest"); 
+    	} catch(ExecutionException ex) {
+    		Throwable cause = ex.getCause(); 
+    		if(cause instanceof RuntimeException) {
+    			throw (RuntimeException) cause; 
+    		}
+    		throw new IllegalStateException(cause); 
+    	}
+    }
+    
+    /**
+     * parses the lines and adds the well-formed reviews to the maps. runs on the ingest threads. 
+     * malformed lines are quarantined with their byte offset, and ingest goes on. 
+     * 
+     * @param lines the data lines (no header) to be ingested 
+     */
+    private void ingestLines(LineBatch lines) {
+    	for(int i = 0; i < lines.size(); i++) {
+    		String line = lines.getLine(i); 
+    		if(line.isEmpty()) {
+    			continue; 
+    		}
+    		try {
+    			String[] customerReviewData = Util.parseLine(line, "\t", numberOfDataColumns);
+    			
+    			// build customerReviewData object
+    			CustomerReview newReview = Util.buildCustomerReview(customerReviewData);
+    			if(newReview != null) {
+    				totalReviews.incrementAndGet(); 
+    				populateMaps(newReview, lines.getOffset(i)); 
+    			} else {
+    				quarantine.reject(lines.getOffset(i), RejectQuarantine.Reason.MISSING_COLUMNS, 
+    						"Expected " + numberOfDataColumns + " columns", line); 
+    			}
+    		} catch(CustomExceptions.ExpectedLessDataColumnsException ex) {
+    			quarantine.reject(lines.getOffset(i), RejectQuarantine.Reason.EXTRA_COLUMNS, ex.getMessage(), line); 
+    		} catch(NumberFormatException ex) {
+    			quarantine.reject(lines.getOffset(i), RejectQuarantine.Reason.BAD_NUMBER, ex.getMessage(), line); 
+    		}
+    	}
+    }
+    
+    /**
+     * adds the review to productIdMap, productStats, customerStats, uniqueWordCounts, the n-gram counts, reviewTimeSeries and customerReviewMap. 
+     * what is kept depends on the degradations the MemoryGovernor has applied. 
+     * this is called by several ingest threads at once. 
+     * 
+     * @param cr the review 
+     * @param offset the byte offset of the row of the review 
+     */
+    private void populateMaps(CustomerReview cr, long offset) {
+    	
+    	long productId = idCodec.encode(cr.getProductId());
+    	// the review_ids are only encoded while the reviews are kept, the dictionary would grow for nothing after that 
+    	boolean keepReviews = !memoryGovernor.isApplied(MemoryGovernor.Degradation.DROP_CUSTOMER_REVIEWS); 
+    	long reviewId = keepReviews ? reviewIdCodec.encode(cr.getReviewId()) : IdCodec.NOT_PACKED; 
+    	String reviewBody = cr.getReviewBody();
+    	String[] wordArray = Util.getCleanWordArray(reviewBody);
+    	if(!memoryGovernor.isApplied(MemoryGovernor.Degradation.DROP_CLEAN_REVIEW_BODIES)) {
+    		cr.setCleanReviewBody(wordArray);
+    	}
+    	
+    	/* 
+    	 * ListMapNode contains a list of all the reviews in the first parameter 
+    	 * and the string-count HashMap in the second 
+    	 */
+    	if(keepReviews) {
+    		ListMapNode node = productIdMap.computeIfAbsent(productId, 
+    				k -> new ListMapNode(new LongArrayList(), new ConcurrentHashMap<>())); 
+    		
+    		LongArrayList reviewIdList = node.first();
+    		synchronized(reviewIdList) {
+    			reviewIdList.add(reviewId); // a review_id that is in the file twice is only removed when the list is read 
+    		}
+    	}
+    	
+    	productStats.add(cr); 
+    	customerStats.add(cr); 
+    	boolean duplicate = duplicateDetector != null && duplicateDetector.add(cr.getReviewId(), offset, wordArray); 
+    	if(duplicate && EXCLUDE_DUPLICATES) {
+    		wordArray = new String[0]; // a copy of a review would count its words again 
+    	}
+    	
+    	BoundedStringCounter sketch = wordSketch; 
+    	if(sketch != null) {
+    		sketch.incrementAll(wordArray); 
+    	} else {
+    		uniqueWordCounts.incrementAll(wordArray); 
+    	}
+    	bigramCounts.incrementAll(Util.getNGrams(wordArray, 2)); 
+    	trigramCounts.incrementAll(Util.getNGrams(wordArray, 3)); 
+    	reviewTimeSeries.add(cr, wordArray); 
+    	if(keepReviews) {
+    		customerReviewMap.put(reviewId, cr);
+    	}
+    }
+        
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,232 @@
+import java.lang.management.*;
+import java.util.*;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Watches the heap during ingest and tells when the aggregates have to shrink to stay within a heap budget,
+ * instead of running until an OutOfMemoryError.
+ *
+ * There are three degradations, applied in order, each when the retained heap reaches its share of the budget:
+ * drop the clean review bodies kept on the reviews, then stop keeping the reviews themselves
+ * (with the review lists of the products and the review_ids they were encoded with),
+ * then count the words with a bounded sketch instead of exactly. They are never undone.
+ * Only one is due at a time: after applying it the caller collects, so the next one is judged on
+ * what is left after the garbage of the previous one is gone.
+ *
+ * The retained heap is the sum of the collection usage of the heap pools, i.e. what each pool still used
+ * after its last garbage collection, so it does not count garbage. It is only measured after collections
+ * the JVM runs anyway: no collection is forced to find out whether a degradation is due, as a full collection
+ * stops every thread. Some collectors (e.g. G1) only update the collection usage of the old generation on a
+ * full collection, which they run when the heap is nearly full, so that is when the degradations are applied.
+ * The collections are reported by collection usage threshold notifications of the heap pools,
+ * which callers can poll cheaply with isCollectedOverThreshold, e.g. for every line instead of every batch.
+ *
+ * @author kaungyang
+ *
+ */
+public class MemoryGovernor {
+
+	public enum Degradation {
+		DROP_CLEAN_REVIEW_BODIES(0.6, "dropped the clean review bodies"),
+		DROP_CUSTOMER_REVIEWS(0.75, "stopped keeping the CustomerReviews and the review lists of the products"),
+		SKETCH_WORD_COUNTS(0.9, "switched the word counts to a sketch");
+
+		private final double budgetShare;
+		private final String description;
+
+		Degradation(double budgetShare, String description) {
+			this.budgetShare = budgetShare;
+			this.description = description;
+		}
+
+		/** @return the share of the heap budget at which it is applied */
+		public double getBudgetShare() { return budgetShare; }
+		public String getDescription() { return description; }
+	}
+
+	private final long budget;
+	private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+	private final NotificationListener listener = this::handleNotification;
+	private final List<MemoryPoolMXBean> watchedPools = new ArrayList<>();
+	private final Map<Degradation, Long> appliedAt = new EnumMap<>(Degradation.class); // reviews ingested when applied
+	private volatile Degradation level = null; // the last degradation applied
+	private volatile boolean collectedOverThreshold = false;
+	private long peakRetained = 0;
+
+	/**
+	 * @param budget the heap budget in bytes
+	 */
+	public MemoryGovernor(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * starts listening for collection usage threshold notifications of the heap pools.
+	 */
+	public synchronized void start() {
+		if(!watchedPools.isEmpty())
+			return;
+		((NotificationEmitter) memoryBean).addNotificationListener(listener, null, null);
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+				watchedPools.add(pool);
+			}
+		}
+		updateThresholds();
+	}
+
+	/**
+	 * stops listening, the degradations applied so far are kept.
+	 */
+	public synchronized void stop() {
+		if(watchedPools.isEmpty())
+			return;
+		try {
+			((NotificationEmitter) memoryBean).removeNotificationListener(listener);
+		} catch(javax.management.ListenerNotFoundException ex) {
+			System.out.println(ex.getMessage());
+		}
+		for(MemoryPoolMXBean pool: watchedPools) {
+			pool.setCollectionUsageThreshold(0); // 0 turns the threshold off
+		}
+		watchedPools.clear();
+	}
+
+	/* sets the threshold of every watched pool to the heap level of the next degradation, if the pool can get that large */
+	private void updateThresholds() {
+		Degradation next = nextDegradation(level);
+		for(MemoryPoolMXBean pool: watchedPools) {
+			long max = pool.getUsage().getMax();
+			long threshold = next == null ? 0 : thresholdOf(next);
+			pool.setCollectionUsageThreshold(max >= 0 && threshold > max ? 0 : threshold);
+		}
+	}
+
+	private void handleNotification(Notification notification, Object handback) {
+		if(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			collectedOverThreshold = true;
+		}
+	}
+
+	private static Degradation nextDegradation(Degradation degradation) {
+		int next = degradation == null ? 0 : degradation.ordinal() + 1;
+		return next < Degradation.values().length ? Degradation.values()[next] : null;
+	}
+
+	private long thresholdOf(Degradation degradation) {
+		return (long) (budget * degradation.getBudgetShare());
+	}
+
+	/* the heap used after the last collection of every heap pool, the used heap if no pool tells */
+	private long retainedHeap() {
+		long retained = 0;
+		boolean measured = false;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+			if(usage != null) {
+				retained += usage.getUsed();
+				measured = true;
+			}
+		}
+		if(!measured)
+			retained = memoryBean.getHeapMemoryUsage().getUsed();
+		peakRetained = Math.max(peakRetained, retained);
+		return retained;
+	}
+
+	/**
+	 * tells whether the next degradation is due, judged on the retained heap after the last collection.
+	 * never collects, so it is cheap enough to call for every batch.
+	 *
+	 * @return the next degradation if it is due, null otherwise. it has to be applied before the one after it is due
+	 */
+	public synchronized Degradation getDueDegradation() {
+		collectedOverThreshold = false;
+		Degradation next = nextDegradation(level);
+		if(next == null)
+			return null;
+		return retainedHeap() >= thresholdOf(next) ? next : null;
+	}
+
+	/**
+	 * requests a garbage collection, so that the collection usage of every heap pool is up to date.
+	 * only meant to be called right after applying a degradation, to judge the next one on what is left.
+	 */
+	public void collect() {
+		memoryBean.gc();
+	}
+
+	/**
+	 * a volatile read, cheap enough to call for every line.
+	 *
+	 * @return whether a collection of the JVM left a heap pool over the threshold of the next degradation
+	 * since getDueDegradation was last called
+	 */
+	public boolean isCollectedOverThreshold() {
+		return collectedOverThreshold;
+	}
+
+	/**
+	 * records that the degradation has been applied
+	 *
+	 * @param degradation the degradation, the next one after the last one applied
+	 * @param totalReviews the number of reviews ingested so far
+	 */
+	public synchronized void apply(Degradation degradation, long totalReviews) {
+		if(degradation != nextDegradation(level))
+			throw new IllegalStateException(degradation + " cannot be applied after " + level);
+		appliedAt.put(degradation, totalReviews);
+		level = degradation;
+		updateThresholds();
+	}
+
+	/**
+	 * safe to call from any thread, e.g. by the ingest threads for every review.
+	 *
+	 * @param degradation a degradation
+	 * @return whether it has been applied
+	 */
+	public boolean isApplied(Degradation degradation) {
+		Degradation current = level;
+		return current != null && current.ordinal() >= degradation.ordinal();
+	}
+
+	/**
+	 * @return the degradations applied and the number of reviews ingested at the time, to be stored in a checkpoint
+	 */
+	public synchronized Map<Degradation, Long> getApplied() {
+		return new EnumMap<>(appliedAt);
+	}
+
+	/**
+	 * restores the degradations applied before a checkpoint, as returned by getApplied.
+	 */
+	public synchronized void setApplied(Map<Degradation, Long> applied) {
+		appliedAt.clear();
+		level = null;
+		for(Degradation degradation: Degradation.values()) {
+			if(applied.containsKey(degradation)) {
+				apply(degradation, applied.get(degradation));
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Heap budget: ").append(budget >> 20).append(" MB, peak retained heap measured: ").append(peakRetained >> 20).append(" MB. ");
+		if(appliedAt.isEmpty()) {
+			sb.append("No degradations were needed.");
+		} else {
+			sb.append("Degradations applied to stay within the budget:");
+			for(Map.Entry<Degradation, Long> entry: appliedAt.entrySet()) {
+				Degradation degradation = entry.getKey();
+				sb.append("\n\t- ").append(degradation.getDescription()).append(" at ").append(entry.getValue())
+					.append(" reviews (").append(Math.round(degradation.getBudgetShare() * 100)).append("% of the budget)");
+			}
+		}
+		return sb.toString();
+	}
+}
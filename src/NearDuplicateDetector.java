@@ -0,0 +1,258 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds reviews whose words are nearly the same as the words of an earlier review (copy-pasted or templated reviews),
+ * without comparing every pair of reviews. Earlier means earlier in the file: every review is added with the byte offset
+ * of its row, so the same review is the original on every run, whatever order the ingest threads add them in.
+ *
+ * Each review gets a MinHash signature of SIGNATURE_LENGTH hashes of its set of words (Util.getCleanWordArray):
+ * the chance that two reviews have the same minimum for a hash is the Jaccard similarity of their word sets.
+ * The signature is cut into BANDS bands of ROWS_PER_BAND hashes (locality-sensitive hashing), and every band is
+ * looked up in a table that keeps, for every band seen so far, the review with the lowest offset that has it.
+ * Only the reviews that share a whole band with another review are candidates, which happens with a chance of 1 - (1 - J^ROWS_PER_BAND)^BANDS, about 95% at a similarity
+ * J of 0.8 and 15% at 0.5. A candidate is a near-duplicate if the similarity estimated from the two signatures
+ * reaches the threshold. Only the lowest byte of every hash is kept for that (b-bit MinHash),
+ * so a review costs about 80 bytes plus BANDS entries of the band table.
+ *
+ * Reviews with less than MIN_WORDS words are left out, short reviews like "great product" are alike anyway.
+ * add is called by the ingest threads, so the reviews are hashed in parallel on all the cores.
+ * A band is looked up and replaced in one step under the lock of its part of the band table,
+ * so of two near-duplicates added at once one always finds the other: if the review that finds the other has
+ * the higher offset, it is the copy, otherwise it marks the other one as its copy.
+ * A review is linked to the review it is a copy of at most once (compare-and-set), and a link always points to
+ * a lower offset, so the groups of copies and the first review of each are resolved by following the links
+ * in getCopiesOfOriginals.
+ *
+ * @author kaungyang
+ *
+ */
+public class NearDuplicateDetector {
+
+	private final static int BANDS = 10;
+	private final static int ROWS_PER_BAND = 6;
+	private final static int SIGNATURE_LENGTH = BANDS * ROWS_PER_BAND;
+	private final static int MIN_WORDS = 5;
+	private final static int STRIPES = 16;
+	private final static int CHUNK_SIZE = 1 << 16;
+	private final static int MAX_CHUNKS = 1 << 14; // up to 2^30 reviews
+	private final static long[] SEEDS = new long[SIGNATURE_LENGTH];
+
+	static {
+		Random random = new Random(0x5EED);
+		for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+			SEEDS[i] = random.nextLong();
+		}
+	}
+
+	private final double threshold;
+	private final LongIntHashMap[] bandStripes = new LongIntHashMap[STRIPES];
+	private final AtomicInteger reviewCount = new AtomicInteger();
+	private final LongAdder duplicateCount = new LongAdder();
+
+	/* per review, by the order it was added: its review_id packed by IdCodec.pack, the offset of its row,
+	 * 1 + the review it is a copy of (0 if none), and its signature */
+	private final long[][] reviewIds = new long[MAX_CHUNKS][];
+	private final long[][] offsets = new long[MAX_CHUNKS][];
+	private final AtomicIntegerArray[] links = new AtomicIntegerArray[MAX_CHUNKS];
+	/* the review_ids that IdCodec cannot pack, by review. kept here so that they do not grow a shared dictionary */
+	private final Map<Integer, String> unpackedIds = new ConcurrentHashMap<>();
+	private final byte[][] signatures = new byte[MAX_CHUNKS][];
+
+	/**
+	 * @param threshold the estimated Jaccard similarity from which a review is a near-duplicate, e.g. 0.8
+	 */
+	public NearDuplicateDetector(double threshold) {
+		this.threshold = threshold;
+		for(int i = 0; i < STRIPES; i++) {
+			bandStripes[i] = new LongIntHashMap();
+		}
+	}
+
+	/* murmur3's 64 bit finalizer */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * adds the review, and tells whether it is a near-duplicate of a review added before it,
+	 * i.e. whether a review with nearly the same words was already counted.
+	 * Which of the two is the copy is decided by their offsets, not by the order they are added in.
+	 * safe to call from several threads.
+	 *
+	 * @param reviewId the review_id
+	 * @param offset the byte offset of the row of the review, which orders the reviews
+	 * @param words the words of the review body, from Util.getCleanWordArray
+	 * @return whether the review is a near-duplicate of a review added before it
+	 */
+	public boolean add(String reviewId, long offset, String[] words) {
+		if(words.length < MIN_WORDS)
+			return false;
+
+		long[] minHashes = new long[SIGNATURE_LENGTH];
+		Arrays.fill(minHashes, Long.MAX_VALUE);
+		for(String word: words) {
+			long wordHash = mix(word.hashCode());
+			for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+				long h = mix(wordHash ^ SEEDS[i]);
+				if(h < minHashes[i]) {
+					minHashes[i] = h;
+				}
+			}
+		}
+
+		int index = reviewCount.getAndIncrement();
+		if(index >= MAX_CHUNKS * CHUNK_SIZE)
+			return false; // more reviews than can be indexed, the rest are not checked
+		int chunk = index / CHUNK_SIZE;
+		int slot = index % CHUNK_SIZE;
+		allocateChunk(chunk);
+		long reviewIdCode = IdCodec.pack(reviewId);
+		if(reviewIdCode == IdCodec.NOT_PACKED) {
+			unpackedIds.put(index, reviewId.toUpperCase());
+		}
+		reviewIds[chunk][slot] = reviewIdCode;
+		offsets[chunk][slot] = offset;
+		byte[] signature = signatures[chunk];
+		for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+			signature[slot * SIGNATURE_LENGTH + i] = (byte) minHashes[i];
+		}
+
+		// the signature and offset are written before the bands, so whoever finds a band of this review can read them
+		int original = -1;
+		boolean foundCopy = false;
+		for(int band = 0; band < BANDS; band++) {
+			long key = band;
+			for(int row = band * ROWS_PER_BAND; row < (band + 1) * ROWS_PER_BAND; row++) {
+				key = mix(key ^ minHashes[row]);
+			}
+			int candidate = putLowest(key, index);
+			if(candidate < 0 || candidate == original)
+				continue;
+			if(isBefore(candidate, index)) {
+				if(original < 0 && similarity(index, candidate) >= threshold) {
+					original = candidate;
+				}
+			} else if(similarity(index, candidate) >= threshold) {
+				// the candidate was added first, but its row comes later, so it is a copy of this review
+				link(candidate, index);
+				foundCopy = true;
+			}
+		}
+		if(original >= 0) {
+			link(index, original);
+		}
+		return original >= 0 || foundCopy;
+	}
+
+	private synchronized void allocateChunk(int chunk) {
+		if(signatures[chunk] == null) {
+			reviewIds[chunk] = new long[CHUNK_SIZE];
+			offsets[chunk] = new long[CHUNK_SIZE];
+			links[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+			signatures[chunk] = new byte[CHUNK_SIZE * SIGNATURE_LENGTH];
+		}
+	}
+
+	/* whether review a comes before review b in the file, by the order they were added if their offsets are equal */
+	private boolean isBefore(int a, int b) {
+		long offsetA = offsets[a / CHUNK_SIZE][a % CHUNK_SIZE];
+		long offsetB = offsets[b / CHUNK_SIZE][b % CHUNK_SIZE];
+		return offsetA < offsetB || (offsetA == offsetB && a < b);
+	}
+
+	/* links the copy to its original, unless it is already linked. a review is counted once, when it is first linked */
+	private void link(int copy, int original) {
+		if(links[copy / CHUNK_SIZE].compareAndSet(copy % CHUNK_SIZE, 0, original + 1)) {
+			duplicateCount.increment();
+		}
+	}
+
+	/**
+	 * looks up the band and keeps the review that comes first in the file for it.
+	 * @return the review that had the band before, or -1 if the band is new
+	 */
+	private int putLowest(long key, int index) {
+		LongIntHashMap stripe = bandStripes[(int) (key >>> 60) & (STRIPES - 1)];
+		synchronized(stripe) {
+			int existing = stripe.get(key, -1);
+			if(existing < 0 || isBefore(index, existing)) {
+				stripe.put(key, index);
+			}
+			return existing;
+		}
+	}
+
+	/* the Jaccard similarity estimated from the share of equal hash bytes, corrected for bytes that are equal by chance */
+	private double similarity(int a, int b) {
+		byte[] signatureA = signatures[a / CHUNK_SIZE];
+		byte[] signatureB = signatures[b / CHUNK_SIZE];
+		int startA = (a % CHUNK_SIZE) * SIGNATURE_LENGTH;
+		int startB = (b % CHUNK_SIZE) * SIGNATURE_LENGTH;
+		int equal = 0;
+		for(int i = 0; i < SIGNATURE_LENGTH; i++) {
+			if(signatureA[startA + i] == signatureB[startB + i]) {
+				equal++;
+			}
+		}
+		double byChance = 1.0 / 256;
+		return ((double) equal / SIGNATURE_LENGTH - byChance) / (1 - byChance);
+	}
+
+	public double getThreshold() { return threshold; }
+
+	/** @return the number of reviews that were checked, i.e. that had at least MIN_WORDS words */
+	public int getCheckedCount() { return Math.min(reviewCount.get(), MAX_CHUNKS * CHUNK_SIZE); }
+
+	/** @return the number of reviews that are near-duplicates of an earlier review */
+	public long getDuplicateCount() { return duplicateCount.sum(); }
+
+	/**
+	 * groups the reviews by the links of add. a link points to a review earlier in the file,
+	 * so the links of a group lead to its first review.
+	 * meant to be called once the reviews have been added, the links of reviews still being added may be missing.
+	 *
+	 * @return a review_id-count map of the first review of every group of near-duplicates and the number of its copies
+	 */
+	public Map<String, Integer> getCopiesOfOriginals() {
+		int count = getCheckedCount();
+		int[] roots = new int[count];
+		for(int i = 0; i < count; i++) {
+			AtomicIntegerArray chunkLinks = links[i / CHUNK_SIZE];
+			int link = chunkLinks == null ? 0 : chunkLinks.get(i % CHUNK_SIZE);
+			roots[i] = link > 0 && link - 1 < count ? link - 1 : i;
+		}
+
+		int[] copies = new int[count];
+		for(int i = 0; i < count; i++) {
+			int root = rootOf(roots, i);
+			if(root != i)
+				copies[root]++;
+		}
+		Map<String, Integer> copiesOfOriginals = new HashMap<>();
+		for(int i = 0; i < count; i++) {
+			if(copies[i] > 0) {
+				String reviewId = IdCodec.unpack(reviewIds[i / CHUNK_SIZE][i % CHUNK_SIZE]);
+				copiesOfOriginals.put(reviewId != null ? reviewId : unpackedIds.get(i), copies[i]);
+			}
+		}
+		return copiesOfOriginals;
+	}
+
+	/* the first review of the group of review i, halving the path on the way */
+	private static int rootOf(int[] roots, int i) {
+		while(roots[i] != i) {
+			roots[i] = roots[roots[i]];
+			i = roots[i];
+		}
+		return i;
+	}
+}
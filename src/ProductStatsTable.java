@@ -0,0 +1,216 @@
+import java.util.*;
+
+/**
+ * Per-product statistics, accumulated in a single pass while the reviews are ingested,
+ * so that products can be ranked without keeping any CustomerReview in memory.
+ *
+ * For every product_id it keeps the number of reviews, the star rating histogram,
+ * the helpful and total votes, the number of verified purchases and the product title,
+ * captured once from the first review. The statistics live in primitive arrays indexed by
+ * the product's row in the table, not in one object per product.
+ * The product_ids are encoded with an IdCodec and the codes are the keys of the StripedLongTable,
+ * so that several ingest threads can add reviews at once.
+ *
+ * @author kaungyang
+ *
+ */
+public class ProductStatsTable extends StripedLongTable<ProductStatsTable.ProductStripe> {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Metric {
+		REVIEW_COUNT("number of reviews"),
+		MEAN_RATING("mean star rating"),
+		HELPFUL_RATIO("helpful votes ratio"),
+		VERIFIED_SHARE("verified purchase share");
+
+		private final String description;
+
+		Metric(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() { return description; }
+	}
+
+	private final IdCodec idCodec;
+
+	/**
+	 * @param idCodec encodes the product_ids, may be shared with other tables
+	 */
+	public ProductStatsTable(IdCodec idCodec) {
+		super(ProductStripe::new);
+		this.idCodec = idCodec;
+	}
+
+	/* the statistics of the products of a stripe, by row. the keys are the product_id codes */
+	static class ProductStripe extends StripedLongTable.Stripe {
+		private static final long serialVersionUID = 1L;
+
+		private String[] titles = new String[16];
+		private int[] counts = new int[16];
+		private int[] histograms = new int[16 * 5]; // 5 star ratings per row
+		private long[] helpfulVotes = new long[16];
+		private long[] totalVotes = new long[16];
+		private int[] verified = new int[16];
+
+		@Override
+		protected void growRows(int length) {
+			titles = Arrays.copyOf(titles, length);
+			counts = Arrays.copyOf(counts, length);
+			histograms = Arrays.copyOf(histograms, length * 5);
+			helpfulVotes = Arrays.copyOf(helpfulVotes, length);
+			totalVotes = Arrays.copyOf(totalVotes, length);
+			verified = Arrays.copyOf(verified, length);
+		}
+
+		private double value(int row, Metric metric) {
+			switch(metric) {
+				case MEAN_RATING:
+					long stars = 0;
+					int rated = 0;
+					for(int star = 1; star <= 5; star++) {
+						stars += (long) star * histograms[row * 5 + star - 1];
+						rated += histograms[row * 5 + star - 1];
+					}
+					return rated == 0 ? 0 : (double) stars / rated;
+				case HELPFUL_RATIO:
+					return totalVotes[row] == 0 ? 0 : (double) helpfulVotes[row] / totalVotes[row];
+				case VERIFIED_SHARE:
+					return (double) verified[row] / counts[row];
+				default:
+					return counts[row];
+			}
+		}
+
+		private ProductStats snapshot(int row, IdCodec idCodec) {
+			return new ProductStats(idCodec.decode(keys[row]), titles[row], counts[row],
+					Arrays.copyOfRange(histograms, row * 5, row * 5 + 5), helpfulVotes[row], totalVotes[row], verified[row]);
+		}
+	}
+
+	/**
+	 * adds the review to the statistics of its product
+	 * @param cr the review to add
+	 */
+	public void add(CustomerReview cr) {
+		long productId = idCodec.encode(cr.getProductId());
+		ProductStripe stripe = stripeOf(productId);
+		synchronized(stripe) {
+			int row = stripe.findRow(productId);
+			if(row < 0) {
+				row = stripe.rowOf(productId);
+				stripe.titles[row] = cr.getProductTitle();
+			}
+			stripe.counts[row]++;
+			int starRating = cr.getStarRating();
+			if(starRating >= 1 && starRating <= 5) {
+				stripe.histograms[row * 5 + starRating - 1]++;
+			}
+			stripe.helpfulVotes[row] += cr.getHelpfulVotes();
+			stripe.totalVotes[row] += cr.getTotalVotes();
+			if(cr.getVerifiedPurchase()) {
+				stripe.verified[row]++;
+			}
+		}
+	}
+
+	/**
+	 * @param productId the product_id to look up
+	 * @return a copy of the statistics of the product, or null if it has no reviews
+	 */
+	public ProductStats get(String productId) {
+		long code = idCodec.lookup(productId);
+		if(code == IdCodec.NOT_PACKED)
+			return null;
+		ProductStripe stripe = stripeOf(code);
+		synchronized(stripe) {
+			int row = stripe.findRow(code);
+			return row < 0 ? null : stripe.snapshot(row, idCodec);
+		}
+	}
+
+	/**
+	 * @param minReviews the lowest number of reviews of a product that is counted
+	 * @return the number of products with at least minReviews reviews
+	 */
+	public int getProductCount(int minReviews) {
+		return countRows((stripe, row) -> stripe.counts[row], minReviews);
+	}
+
+	/**
+	 * @return a copy of the statistics of every product, in no particular order
+	 */
+	public List<ProductStats> getAllProducts() {
+		List<ProductStats> products = new ArrayList<>();
+		for(int s = 0; s < STRIPES; s++) {
+			ProductStripe stripe = stripe(s);
+			synchronized(stripe) {
+				for(int row = 0; row < stripe.size; row++) {
+					products.add(stripe.snapshot(row, idCodec));
+				}
+			}
+		}
+		return products;
+	}
+
+	/**
+	 * returns the numOfProducts products with the highest value of the metric,
+	 * ties broken by the number of reviews.
+	 *
+	 * @param metric the metric to rank by
+	 * @param numOfProducts the number of products to return
+	 * @param minReviews products with less reviews are left out, e.g. so that a single 5 star review does not top the mean rating
+	 * @return the statistics of the products, highest first
+	 */
+	public List<ProductStats> getTopProducts(Metric metric, int numOfProducts, int minReviews) {
+		return getTopRows((stripe, row) -> stripe.value(row, metric), (stripe, row) -> stripe.counts[row], numOfProducts, minReviews,
+				(stripe, row) -> stripe.snapshot(row, idCodec));
+	}
+
+	/**
+	 * A copy of the statistics of one product.
+	 */
+	public static class ProductStats {
+		private final String productId;
+		private final String productTitle;
+		private final int reviewCount;
+		private final int[] starHistogram;
+		private final long helpfulVotes;
+		private final long totalVotes;
+		private final int verifiedCount;
+
+		private ProductStats(String productId, String productTitle, int reviewCount, int[] starHistogram,
+				long helpfulVotes, long totalVotes, int verifiedCount) {
+			this.productId = productId;
+			this.productTitle = productTitle;
+			this.reviewCount = reviewCount;
+			this.starHistogram = starHistogram;
+			this.helpfulVotes = helpfulVotes;
+			this.totalVotes = totalVotes;
+			this.verifiedCount = verifiedCount;
+		}
+
+		public String getProductId() { return productId; }
+		public String getProductTitle() { return productTitle; }
+		public int getReviewCount() { return reviewCount; }
+		/** @return the number of reviews with 1 to 5 stars, at index 0 to 4 */
+		public int[] getStarHistogram() { return starHistogram.clone(); }
+		public long getHelpfulVotes() { return helpfulVotes; }
+		public long getTotalVotes() { return totalVotes; }
+		public int getVerifiedCount() { return verifiedCount; }
+
+		public double getMeanRating() {
+			long stars = 0;
+			int rated = 0;
+			for(int i = 0; i < 5; i++) {
+				stars += (long) (i + 1) * starHistogram[i];
+				rated += starHistogram[i];
+			}
+			return rated == 0 ? 0 : (double) stars / rated;
+		}
+
+		public double getHelpfulRatio() { return totalVotes == 0 ? 0 : (double) helpfulVotes / totalVotes; }
+		public double getVerifiedShare() { return reviewCount == 0 ? 0 : (double) verifiedCount / reviewCount; }
+	}
+}
@@ -0,0 +1,296 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exports full rankings, e.g. every word with its count or every product with its statistics,
+ * for tools that need more than the top 10 that is printed.
+ *
+ * The entries are ranked with rankByCount, an LSD radix sort on the integer counts, which takes linear time
+ * where sorting with Util.sortHashMapByValues is quadratic. The ranked rows are then split into chunks
+ * that are encoded by several threads at once, and each chunk is written at its own position of the file
+ * through a FileChannel, so the threads never wait for each other.
+ *
+ * There are two formats:
+ * - CSV, with a header line, one row per entry and the rank in the first column.
+ * - BINARY, a compact big-endian format: MAGIC, a format version, the number of rows, then the rows.
+ *   a word row is its count (int) and the word (DataOutput.writeUTF),
+ *   a product row is product_id and product_title (writeUTF), the review count and the 5 star counts (ints),
+ *   the helpful and total votes (longs) and the number of verified purchases (int).
+ *
+ * @author kaungyang
+ *
+ */
+public class RankingExporter {
+
+	protected final static int MAGIC = 0x524E4B53; // "RNKS"
+	protected final static int WORD_COUNTS_VERSION = 1;
+	protected final static int PRODUCT_STATS_VERSION = 1;
+
+	private final static int MIN_ROWS_PER_CHUNK = 16384;
+
+	public enum Format {
+		CSV(".csv"),
+		BINARY(".bin");
+
+		private final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+
+		public String getExtension() { return extension; }
+	}
+
+	/* encodes the rows from (inclusive) to to (exclusive) of a ranking */
+	private interface ChunkEncoder {
+		void encode(int from, int to, ByteArrayOutputStream out) throws IOException;
+	}
+
+	private final int threads;
+
+	/**
+	 * @param threads the number of threads that encode and write the chunks
+	 */
+	public RankingExporter(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * ranks the entries by count, highest first, with an LSD radix sort of 8 bits per pass.
+	 * entries with the same count keep their order. passes over bytes that are the same in every count
+	 * are skipped, so counts below 65536 only take two passes.
+	 *
+	 * @param counts the counts of the entries, not negative
+	 * @return the indexes of the entries, from the highest count to the lowest
+	 */
+	public static int[] rankByCount(int[] counts) {
+		int n = counts.length;
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		if(n == 0)
+			return order;
+		int[] buffer = new int[n];
+		int[] buckets = new int[257];
+
+		int differingBits = 0;
+		for(int count: counts) {
+			differingBits |= count ^ counts[0];
+		}
+
+		for(int shift = 0; shift < 32; shift += 8) {
+			if(((differingBits >>> shift) & 0xFF) == 0)
+				continue;
+
+			Arrays.fill(buckets, 0);
+			for(int i = 0; i < n; i++) {
+				buckets[256 - ((counts[order[i]] >>> shift) & 0xFF)]++; // bucket 1 holds the highest byte, so it comes first
+			}
+			for(int b = 1; b <= 256; b++) {
+				buckets[b] += buckets[b - 1];
+			}
+			for(int i = 0; i < n; i++) {
+				int index = order[i];
+				buffer[buckets[255 - ((counts[index] >>> shift) & 0xFF)]++] = index;
+			}
+			int[] swap = order;
+			order = buffer;
+			buffer = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * exports every string with its count, ranked by count.
+	 *
+	 * @param strings the strings, e.g. the words
+	 * @param counts the count of each string
+	 * @param file the file to write, replaced if it exists
+	 * @param format the format of the file
+	 */
+	public void exportCounts(String[] strings, int[] counts, File file, Format format) throws IOException {
+		int[] ranking = rankByCount(counts);
+		ChunkEncoder encoder;
+		byte[] header;
+
+		if(format == Format.CSV) {
+			header = "rank,string,count\n".getBytes(StandardCharsets.UTF_8);
+			encoder = (from, to, out) -> {
+				StringBuilder sb = new StringBuilder((to - from) * 24);
+				for(int rank = from; rank < to; rank++) {
+					int index = ranking[rank];
+					sb.append(rank + 1).append(',');
+					appendCsv(sb, strings[index]);
+					sb.append(',').append(counts[index]).append('\n');
+				}
+				out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+			};
+		} else {
+			header = binaryHeader(WORD_COUNTS_VERSION, ranking.length);
+			encoder = (from, to, out) -> {
+				DataOutputStream data = new DataOutputStream(out);
+				for(int rank = from; rank < to; rank++) {
+					int index = ranking[rank];
+					data.writeInt(counts[index]);
+					data.writeUTF(strings[index]);
+				}
+				data.flush();
+			};
+		}
+		write(file, header, ranking.length, encoder);
+	}
+
+	/**
+	 * exports every product of the table with its statistics, ranked by the number of reviews.
+	 *
+	 * @param table the per-product statistics
+	 * @param file the file to write, replaced if it exists
+	 * @param format the format of the file
+	 */
+	public void exportProducts(ProductStatsTable table, File file, Format format) throws IOException {
+		List<ProductStatsTable.ProductStats> products = table.getAllProducts();
+		int[] counts = new int[products.size()];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = products.get(i).getReviewCount();
+		}
+		int[] ranking = rankByCount(counts);
+		ChunkEncoder encoder;
+		byte[] header;
+
+		if(format == Format.CSV) {
+			header = ("rank,product_id,product_title,review_count,mean_rating,star_1,star_2,star_3,star_4,star_5,"
+					+ "helpful_votes,total_votes,verified_purchases\n").getBytes(StandardCharsets.UTF_8);
+			encoder = (from, to, out) -> {
+				StringBuilder sb = new StringBuilder((to - from) * 128);
+				for(int rank = from; rank < to; rank++) {
+					ProductStatsTable.ProductStats product = products.get(ranking[rank]);
+					sb.append(rank + 1).append(',');
+					appendCsv(sb, product.getProductId());
+					sb.append(',');
+					appendCsv(sb, product.getProductTitle());
+					sb.append(',').append(product.getReviewCount()).append(',');
+					appendHundredths(sb, product.getMeanRating());
+					for(int stars: product.getStarHistogram()) {
+						sb.append(',').append(stars);
+					}
+					sb.append(',').append(product.getHelpfulVotes()).append(',').append(product.getTotalVotes());
+					sb.append(',').append(product.getVerifiedCount()).append('\n');
+				}
+				out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+			};
+		} else {
+			header = binaryHeader(PRODUCT_STATS_VERSION, ranking.length);
+			encoder = (from, to, out) -> {
+				DataOutputStream data = new DataOutputStream(out);
+				for(int rank = from; rank < to; rank++) {
+					ProductStatsTable.ProductStats product = products.get(ranking[rank]);
+					data.writeUTF(product.getProductId());
+					data.writeUTF(product.getProductTitle());
+					data.writeInt(product.getReviewCount());
+					for(int stars: product.getStarHistogram()) {
+						data.writeInt(stars);
+					}
+					data.writeLong(product.getHelpfulVotes());
+					data.writeLong(product.getTotalVotes());
+					data.writeInt(product.getVerifiedCount());
+				}
+				data.flush();
+			};
+		}
+		write(file, header, ranking.length, encoder);
+	}
+
+	private static byte[] binaryHeader(int version, int rows) {
+		return ByteBuffer.allocate(12).putInt(MAGIC).putInt(version).putInt(rows).array();
+	}
+
+	/* appends the value as a CSV field, quoted if it contains a comma, a quote or a line break */
+	private static void appendCsv(StringBuilder sb, String value) {
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			sb.append(value);
+			return;
+		}
+		sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	/* appends a non-negative value with two decimals, without the cost of String.format */
+	private static void appendHundredths(StringBuilder sb, double value) {
+		long hundredths = Math.round(value * 100);
+		sb.append(hundredths / 100).append('.');
+		if(hundredths % 100 < 10)
+			sb.append('0');
+		sb.append(hundredths % 100);
+	}
+
+	/**
+	 * encodes the rows in chunks on the threads, then writes every chunk at its position after the header.
+	 */
+	private void write(File file, byte[] header, int rows, ChunkEncoder encoder) throws IOException {
+		int chunks = Math.max(1, Math.min(threads * 4, rows / MIN_ROWS_PER_CHUNK));
+		int rowsPerChunk = (rows + chunks - 1) / Math.max(1, chunks);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks));
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			List<Future<byte[]>> encoded = new ArrayList<>(chunks);
+			for(int c = 0; c < chunks; c++) {
+				int from = Math.min(rows, c * rowsPerChunk);
+				int to = Math.min(rows, from + rowsPerChunk);
+				encoded.add(pool.submit(() -> {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, (to - from) * 32));
+					encoder.encode(from, to, out);
+					return out.toByteArray();
+				}));
+			}
+
+			List<Future<Void>> written = new ArrayList<>(chunks + 1);
+			long position = 0;
+			written.add(writeAt(pool, channel, header, position));
+			position += header.length;
+			for(Future<byte[]> chunk: encoded) {
+				byte[] bytes = await(chunk);
+				written.add(writeAt(pool, channel, bytes, position));
+				position += bytes.length;
+			}
+			for(Future<Void> write: written) {
+				await(write);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static Future<Void> writeAt(ExecutorService pool, FileChannel channel, byte[] bytes, long position) {
+		return pool.submit(() -> {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			long at = position;
+			while(buffer.hasRemaining()) {
+				at += channel.write(buffer, at);
+			}
+			return null;
+		});
+	}
+
+	/* waits for an encoding or writing task, and rethrows its IOException */
+	private static <T> T await(Future<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while exporting");
+		} catch(ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
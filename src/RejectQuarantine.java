@@ -0,0 +1,183 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the malformed rows of a data set instead of aborting the whole run.
+ *
+ * Every rejected row is written to the quarantine file as
+ * "byte offset TAB reason TAB message TAB the original row", and counted by reason.
+ * The file is only opened when the first row is rejected, so a clean data set in a read-only directory
+ * can still be read. If it cannot be opened, the rejected rows are only counted.
+ * Safe to be used by several ingest threads at once.
+ *
+ * @author kaungyang
+ *
+ */
+public class RejectQuarantine implements Closeable {
+
+	public enum Reason {
+		EXTRA_COLUMNS("extra columns"),
+		MISSING_COLUMNS("missing columns"),
+		BAD_NUMBER("bad numbers");
+
+		private final String description;
+
+		Reason(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() { return description; }
+	}
+
+	private final File quarantineFile;
+	private final long keepLength;
+	private final Object lock = new Object();
+	private final AtomicLongArray counts = new AtomicLongArray(Reason.values().length);
+	private FileChannel channel;
+	private Writer writer;
+	private boolean unwritable = false;
+
+	/**
+	 * keeps the first keepLength bytes of the quarantine file and drops the rest, if it is longer.
+	 * a resumed run keeps the rows rejected before its checkpoint and drops the ones rejected after it,
+	 * since those rows will be read again.
+	 *
+	 * @param quarantineFile the file to write the rejected rows to
+	 * @param keepLength the number of bytes to keep, 0 to start a new quarantine file
+	 */
+	public RejectQuarantine(File quarantineFile, long keepLength) {
+		this.quarantineFile = quarantineFile;
+		this.keepLength = keepLength;
+		if(quarantineFile.length() > keepLength) {
+			try (FileChannel stale = FileChannel.open(quarantineFile.toPath(), StandardOpenOption.WRITE)) {
+				stale.truncate(keepLength);
+			} catch(IOException ex) {
+				System.out.println("Could not truncate " + quarantineFile.getName() + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	/* opens the file on the first reject, or gives up for good. called with the lock held */
+	private boolean open() {
+		if(writer != null)
+			return true;
+		if(unwritable)
+			return false;
+		try {
+			channel = FileChannel.open(quarantineFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			channel.truncate(keepLength);
+			channel.position(keepLength);
+			writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+			return true;
+		} catch(IOException ex) {
+			System.out.println("Could not open " + quarantineFile.getName() + ", malformed rows are only counted: " + ex.getMessage());
+			unwritable = true;
+			return false;
+		}
+	}
+
+	/**
+	 * @param dataFile the data set
+	 * @return the quarantine file of the data set, next to it
+	 */
+	public static File quarantineFileOf(File dataFile) {
+		return new File(dataFile.getPath() + ".rejects.txt");
+	}
+
+	/**
+	 * writes the row to the quarantine file and counts it
+	 *
+	 * @param offset the byte offset of the row in the data set
+	 * @param reason why the row was rejected
+	 * @param message the message of the error, if any
+	 * @param line the original row
+	 */
+	public void reject(long offset, Reason reason, String message, String line) {
+		counts.incrementAndGet(reason.ordinal());
+		synchronized(lock) {
+			if(!open())
+				return;
+			try {
+				writer.write(Long.toString(offset));
+				writer.write('\t');
+				writer.write(reason.name());
+				writer.write('\t');
+				writer.write(message == null ? "" : message.replace('\t', ' '));
+				writer.write('\t');
+				writer.write(line);
+				writer.write('\n');
+			} catch(IOException ex) {
+				System.out.println("Could not quarantine the row at " + offset + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * flushes the rejected rows to the file
+	 *
+	 * @return the length of the quarantine file, to be stored in a checkpoint
+	 */
+	public long flush() throws IOException {
+		synchronized(lock) {
+			if(writer == null)
+				return unwritable ? 0 : keepLength;
+			writer.flush();
+			return channel.position();
+		}
+	}
+
+	public long getCount(Reason reason) { return counts.get(reason.ordinal()); }
+
+	public long getTotalCount() {
+		long total = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/** @return the counts by Reason.ordinal, to be stored in a checkpoint */
+	public long[] getCounts() {
+		long[] arr = new long[counts.length()];
+		for(int i = 0; i < arr.length; i++) {
+			arr[i] = counts.get(i);
+		}
+		return arr;
+	}
+
+	/** restores the counts of a checkpoint */
+	public void setCounts(long[] arr) {
+		for(int i = 0; i < arr.length && i < counts.length(); i++) {
+			counts.set(i, arr[i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		boolean written;
+		synchronized(lock) {
+			written = !unwritable;
+		}
+		sb.append(getTotalCount()).append(written ? " malformed rows were quarantined to " : " malformed rows were counted, ")
+			.append(quarantineFile.getName()).append(written ? " (" : " could not be written (");
+		for(Reason reason: Reason.values()) {
+			if(reason.ordinal() > 0)
+				sb.append(", ");
+			sb.append(reason.getDescription()).append(": ").append(getCount(reason));
+		}
+		return sb.append(")").toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(lock) {
+			if(writer != null)
+				writer.close();
+		}
+	}
+}
@@ -0,0 +1,313 @@
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-aggregated review volume and star ratings per day, for every product and every category.
+ *
+ * Each product_id and product_category has a DailySeries, which keeps the number of reviews
+ * and the sum of star ratings of the days that have reviews (CustomerReview.getReviewDay) in sorted int arrays,
+ * so range, bucket and rolling-window queries only touch the days in the window, never the reviews,
+ * and a product with a few reviews over ten years costs a few days, not an array over the whole span.
+ * Categories additionally count the words of every week in a BoundedStringCounter for top words queries,
+ * for the WORD_WEEKS latest weeks only. The earlier weeks are dropped, and getWordCounts rejects windows
+ * that reach into them instead of returning the counts of the weeks that are left.
+ *
+ * Days are epoch days (days since 1970-01-01), both ends of a range are inclusive.
+ * Safe to be updated by several ingest threads at once.
+ *
+ * @author kaungyang
+ *
+ */
+public class ReviewTimeSeries implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Granularity { DAY, WEEK, MONTH }
+
+	private final Map<String, DailySeries> productSeries = new ConcurrentHashMap<>();
+	private final Map<String, DailySeries> categorySeries = new ConcurrentHashMap<>();
+
+	/**
+	 * adds the review to the series of its product and its category.
+	 * reviews without a well-formed review_date are ignored.
+	 *
+	 * @param cr the review, with its clean review body already set
+	 * @param wordArray the clean words of the review body
+	 */
+	public void add(CustomerReview cr, String[] wordArray) {
+		int day = cr.getReviewDay();
+		if(day == CustomerReview.NO_DATE)
+			return;
+
+		productSeries.computeIfAbsent(cr.getProductId(), k -> new DailySeries(false))
+			.add(day, cr.getStarRating(), null);
+		categorySeries.computeIfAbsent(cr.getProductCategory(), k -> new DailySeries(true))
+			.add(day, cr.getStarRating(), wordArray);
+	}
+
+	public DailySeries getProductSeries(String productId) { return productSeries.get(productId); }
+	public DailySeries getCategorySeries(String category) { return categorySeries.get(category); }
+	public Set<String> getCategories() { return categorySeries.keySet(); }
+
+	/**
+	 * review counts and star rating sums of one product or category, by day.
+	 * days holds the days with reviews in ascending order, counts and starSums the values of each.
+	 */
+	public static class DailySeries implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final static int WORD_WEEKS = 13;
+		private final static int WORDS_PER_WEEK = 4096;
+
+		private int[] days = new int[4];
+		private int[] counts = new int[4];
+		private int[] starSums = new int[4];
+		private int size = 0;
+		private TreeMap<Integer, BoundedStringCounter> weekWords; // by the first day of the week, only for categories
+		private boolean droppedWeeks = false; // whether the words of a week before the first of weekWords were dropped
+
+		private DailySeries(boolean countWords) {
+			if(countWords)
+				this.weekWords = new TreeMap<>();
+		}
+
+		private synchronized void add(int day, int starRating, String[] wordArray) {
+			int i = Arrays.binarySearch(days, 0, size, day);
+			if(i < 0) {
+				i = -i - 1;
+				insertDay(i, day);
+			}
+			counts[i]++;
+			starSums[i] += starRating;
+			if(weekWords != null && wordArray != null) {
+				addWords(day, wordArray);
+			}
+		}
+
+		/* inserts a day without reviews at index i, most days are added at the end */
+		private void insertDay(int i, int day) {
+			if(size == days.length) {
+				days = Arrays.copyOf(days, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+				starSums = Arrays.copyOf(starSums, size * 2);
+			}
+			System.arraycopy(days, i, days, i + 1, size - i);
+			System.arraycopy(counts, i, counts, i + 1, size - i);
+			System.arraycopy(starSums, i, starSums, i + 1, size - i);
+			days[i] = day;
+			counts[i] = 0;
+			starSums[i] = 0;
+			size++;
+		}
+
+		/* counts the words in the counter of the week of the day, dropping the earliest week if there are too many */
+		private void addWords(int day, String[] wordArray) {
+			int week = bucketStart(day, Granularity.WEEK);
+			BoundedStringCounter words = weekWords.get(week);
+			if(words == null) {
+				if(weekWords.size() >= WORD_WEEKS) {
+					droppedWeeks = true;
+					if(week < weekWords.firstKey())
+						return;
+					weekWords.pollFirstEntry();
+				}
+				words = new BoundedStringCounter(WORDS_PER_WEEK);
+				weekWords.put(week, words);
+			}
+			words.incrementAll(wordArray);
+		}
+
+		/* the index of the first day with reviews from day on, size if there is none */
+		private int indexFrom(int day) {
+			int i = Arrays.binarySearch(days, 0, size, day);
+			return i >= 0 ? i : -i - 1;
+		}
+
+		/** @return the first day with a review, or CustomerReview.NO_DATE if empty */
+		public synchronized int getFirstDay() { return size == 0 ? CustomerReview.NO_DATE : days[0]; }
+
+		/** @return the last day with a review, or CustomerReview.NO_DATE if empty */
+		public synchronized int getLastDay() { return size == 0 ? CustomerReview.NO_DATE : days[size - 1]; }
+
+		/** @return the number of reviews from fromDay to toDay */
+		public synchronized int getVolume(int fromDay, int toDay) {
+			int sum = 0;
+			for(int i = indexFrom(fromDay); i < size && days[i] <= toDay; i++) {
+				sum += counts[i];
+			}
+			return sum;
+		}
+
+		/** @return the average star rating from fromDay to toDay, 0 if there are no reviews */
+		public synchronized double getAverageRating(int fromDay, int toDay) {
+			long count = 0;
+			long stars = 0;
+			for(int i = indexFrom(fromDay); i < size && days[i] <= toDay; i++) {
+				count += counts[i];
+				stars += starSums[i];
+			}
+			return count == 0 ? 0 : (double) stars / count;
+		}
+
+		/**
+		 * the number of reviews in the window of windowDays days that ends on each day from fromDay to toDay.
+		 * runs in time proportional to (toDay - fromDay) + windowDays, using a running sum.
+		 *
+		 * @return the rolling volumes, index 0 is fromDay
+		 */
+		public synchronized int[] getRollingVolume(int fromDay, int toDay, int windowDays) {
+			int[] rolling = new int[Math.max(toDay - fromDay + 1, 0)];
+			int start = fromDay - windowDays + 1;
+			int entering = indexFrom(start);
+			int leaving = entering;
+			int sum = 0;
+			for(int day = start; day <= toDay; day++) {
+				if(entering < size && days[entering] == day)
+					sum += counts[entering++];
+				if(leaving < size && days[leaving] == day - windowDays)
+					sum -= counts[leaving++];
+				if(day >= fromDay)
+					rolling[day - fromDay] = sum;
+			}
+			return rolling;
+		}
+
+		/**
+		 * the average star rating in the window of windowDays days that ends on each day from fromDay to toDay.
+		 *
+		 * @return the rolling averages, index 0 is fromDay, 0 for windows without reviews
+		 */
+		public synchronized double[] getRollingAverageRating(int fromDay, int toDay, int windowDays) {
+			double[] rolling = new double[Math.max(toDay - fromDay + 1, 0)];
+			int start = fromDay - windowDays + 1;
+			int entering = indexFrom(start);
+			int leaving = entering;
+			int count = 0;
+			long stars = 0;
+			for(int day = start; day <= toDay; day++) {
+				if(entering < size && days[entering] == day) {
+					count += counts[entering];
+					stars += starSums[entering++];
+				}
+				if(leaving < size && days[leaving] == day - windowDays) {
+					count -= counts[leaving];
+					stars -= starSums[leaving++];
+				}
+				if(day >= fromDay)
+					rolling[day - fromDay] = count == 0 ? 0 : (double) stars / count;
+			}
+			return rolling;
+		}
+
+		/**
+		 * groups the days from fromDay to toDay into days, weeks (starting on monday) or calendar months.
+		 *
+		 * @return the buckets in order, including empty ones
+		 */
+		public synchronized List<Bucket> getBuckets(int fromDay, int toDay, Granularity granularity) {
+			List<Bucket> buckets = new ArrayList<>();
+			int i = indexFrom(fromDay);
+			int start = bucketStart(fromDay, granularity);
+			while(start <= toDay) {
+				int next = nextBucketStart(start, granularity);
+				int to = Math.min(next - 1, toDay);
+				int count = 0;
+				long stars = 0;
+				for(; i < size && days[i] <= to; i++) {
+					count += counts[i];
+					stars += starSums[i];
+				}
+				buckets.add(new Bucket(start, count, count == 0 ? 0 : (double) stars / count));
+				start = next;
+			}
+			return buckets;
+		}
+
+		/** @return whether the series counts words, i.e. whether it is the series of a category */
+		public boolean hasWordCounts() { return weekWords != null; }
+
+		/**
+		 * @return the first day of the earliest week whose words are still counted,
+		 * or Integer.MIN_VALUE if no week was dropped, so the words of every day are counted
+		 */
+		public synchronized int getFirstWordDay() {
+			return droppedWeeks ? weekWords.firstKey() : Integer.MIN_VALUE;
+		}
+
+		/**
+		 * merges the word counts of the weeks from the week of fromDay to the week of toDay,
+		 * so the window is widened to whole weeks. the counts of each week are bounded (see BoundedStringCounter).
+		 * only the WORD_WEEKS latest weeks are kept, so the window must not start before getFirstWordDay.
+		 *
+		 * @return the string-count map of the window, to be used with Util.getStringCountMapString
+		 * @throws IllegalStateException if the series does not count words (see hasWordCounts)
+		 * @throws IllegalArgumentException if the window starts before getFirstWordDay, whose words are gone
+		 */
+		public synchronized Map<String, Integer> getWordCounts(int fromDay, int toDay) {
+			if(weekWords == null)
+				throw new IllegalStateException("Only the series of categories count words");
+			int fromWeek = bucketStart(fromDay, Granularity.WEEK);
+			if(fromWeek < getFirstWordDay())
+				throw new IllegalArgumentException("The words before " + LocalDate.ofEpochDay(getFirstWordDay())
+						+ " are no longer counted, the window starts " + LocalDate.ofEpochDay(fromWeek));
+			Map<String, Integer> merged = new HashMap<>();
+			for(BoundedStringCounter words: weekWords.subMap(fromWeek, true, toDay, true).values()) {
+				for(Map.Entry<String, Integer> entry: words.getTopCounts(words.size()).entrySet()) {
+					merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				}
+			}
+			return merged;
+		}
+	}
+
+	/**
+	 * the review volume and average star rating of a day, week or month
+	 */
+	public static class Bucket {
+		private final int startDay;
+		private final int count;
+		private final double averageRating;
+
+		private Bucket(int startDay, int count, double averageRating) {
+			this.startDay = startDay;
+			this.count = count;
+			this.averageRating = averageRating;
+		}
+
+		public int getStartDay() { return startDay; }
+		public int getCount() { return count; }
+		public double getAverageRating() { return averageRating; }
+
+		@Override
+		public String toString() {
+			return LocalDate.ofEpochDay(startDay) + ":  " + count + " reviews, " + String.format("%.2f", averageRating) + " stars";
+		}
+	}
+
+	/**
+	 * @return the first day of the bucket that contains day
+	 */
+	public static int bucketStart(int day, Granularity granularity) {
+		switch(granularity) {
+			case WEEK:
+				return day - Math.floorMod(day + 3, 7); // 1970-01-01 was a thursday
+			case MONTH:
+				return (int) LocalDate.ofEpochDay(day).withDayOfMonth(1).toEpochDay();
+			default:
+				return day;
+		}
+	}
+
+	private static int nextBucketStart(int start, Granularity granularity) {
+		switch(granularity) {
+			case WEEK:
+				return start + 7;
+			case MONTH:
+				return (int) LocalDate.ofEpochDay(start).plusMonths(1).toEpochDay();
+			default:
+				return start + 1;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the word count and most reviewed products over several local JVM processes,
+ * for data sets that do not fit in a single heap.
+ *
+ * The rows are hash-partitioned by product_id (see ShardWorker.shardOf), one ShardWorker process per shard.
+ * Each worker sends back its partial word counts and its own top-K products over a localhost socket.
+ * Since a product belongs to exactly one shard, the merged top-K products are exact,
+ * and so are the summed word counts.
+ *
+ * If a worker exits, drops the connection, sends a truncated result or takes longer than
+ * WORKER_TIMEOUT_MS, its shard is re-run, up to MAX_ATTEMPTS times.
+ *
+ * usage: java ShardCoordinator <file.tsv> [number of workers] [top K]
+ * -Dreviews.workerHeap=4g sets the -Xmx of every worker.
+ *
+ * @author kaungyang
+ *
+ */
+public class ShardCoordinator {
+
+	private final static int MAX_ATTEMPTS = 3;
+	private final static long WORKER_TIMEOUT_MS = Long.getLong("reviews.workerTimeoutMs", TimeUnit.MINUTES.toMillis(30));
+	private final static String WORKER_HEAP = System.getProperty("reviews.workerHeap");
+
+	private final File file;
+	private final int shardCount;
+	private final int topK;
+
+	private final ConcurrentStringCounter wordCounts = new ConcurrentStringCounter();
+	private final List<ProductCount> productCounts = Collections.synchronizedList(new ArrayList<>());
+	private int totalReviews = 0;
+	private int skippedRows = 0;
+	private int totalProducts = 0;
+
+	public ShardCoordinator(File file, int shardCount, int topK) {
+		this.file = file;
+		this.shardCount = shardCount;
+		this.topK = topK;
+	}
+
+	/* a product and its number of reviews, as reported by a worker */
+	private static class ProductCount {
+		private final String productId;
+		private final String productTitle;
+		private final int count;
+
+		private ProductCount(String productId, String productTitle, int count) {
+			this.productId = productId;
+			this.productTitle = productTitle;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * starts one worker per shard, waits for all of them, and merges their results.
+	 *
+	 * @throws IOException if a shard still fails after MAX_ATTEMPTS
+	 */
+	public void run() throws IOException, InterruptedException {
+		ExecutorService shardPool = Executors.newFixedThreadPool(shardCount);
+		try {
+			List<Future<Void>> shards = new ArrayList<>();
+			for(int shard = 0; shard < shardCount; shard++) {
+				final int shardIndex = shard;
+				shards.add(shardPool.submit(() -> { runShard(shardIndex); return null; }));
+			}
+			for(Future<Void> shard: shards) {
+				try {
+					shard.get();
+				} catch(ExecutionException ex) {
+					if(ex.getCause() instanceof IOException)
+						throw (IOException) ex.getCause();
+					throw new IllegalStateException(ex.getCause());
+				}
+			}
+		} finally {
+			shardPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * runs a shard until a worker returns a complete result.
+	 */
+	private void runShard(int shardIndex) throws IOException, InterruptedException {
+		IOException lastFailure = null;
+		for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			try {
+				runWorker(shardIndex);
+				return;
+			} catch(IOException ex) {
+				lastFailure = ex;
+				System.err.println("shard " + shardIndex + " failed (attempt " + attempt + " of " + MAX_ATTEMPTS + "): " + ex.getMessage());
+			}
+		}
+		throw new IOException("shard " + shardIndex + " failed " + MAX_ATTEMPTS + " times", lastFailure);
+	}
+
+	/**
+	 * launches a worker process for the shard and reads its result.
+	 * every attempt listens on its own ephemeral loopback port, so a late worker of a failed attempt
+	 * can never be mistaken for the current one.
+	 */
+	private void runWorker(int shardIndex) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + WORKER_TIMEOUT_MS;
+		Process worker = null;
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			worker = startWorker(server.getLocalPort(), shardIndex);
+
+			server.setSoTimeout(1000);
+			Socket socket = null;
+			while(socket == null) {
+				try {
+					socket = server.accept();
+				} catch(SocketTimeoutException ex) {
+					if(!worker.isAlive())
+						throw new IOException("worker exited with code " + worker.exitValue());
+					if(System.currentTimeMillis() > deadline)
+						throw new IOException("worker timed out");
+				}
+			}
+
+			try (Socket s = socket;
+					DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+				s.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+				readResult(in, shardIndex);
+			}
+		} finally {
+			if(worker != null) {
+				if(!worker.waitFor(5, TimeUnit.SECONDS))
+					worker.destroyForcibly();
+			}
+		}
+	}
+
+	private Process startWorker(int port, int shardIndex) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if(WORKER_HEAP != null)
+			command.add("-Xmx" + WORKER_HEAP);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("ShardWorker");
+		command.add(String.valueOf(port));
+		command.add(String.valueOf(shardIndex));
+		command.add(String.valueOf(shardCount));
+		command.add(String.valueOf(topK));
+		command.add(file.getAbsolutePath());
+
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	/**
+	 * reads a worker result (see ShardWorker.writeResult) in full before merging any of it,
+	 * so that a truncated result from a failed worker is never half merged.
+	 */
+	private void readResult(DataInputStream in, int shardIndex) throws IOException {
+		if(in.readInt() != ShardWorker.MAGIC || in.readInt() != shardIndex)
+			throw new IOException("unexpected result");
+		int reviews = in.readInt();
+		int skipped = in.readInt();
+
+		int numWords = in.readInt();
+		Map<String, Integer> shardWordCounts = new HashMap<>(numWords * 4 / 3 + 1);
+		for(int i = 0; i < numWords; i++) {
+			shardWordCounts.put(in.readUTF(), in.readInt());
+		}
+
+		int shardProducts = in.readInt();
+		int numProducts = in.readInt();
+		List<ProductCount> shardProductCounts = new ArrayList<>(numProducts);
+		for(int i = 0; i < numProducts; i++) {
+			shardProductCounts.add(new ProductCount(in.readUTF(), in.readUTF(), in.readInt()));
+		}
+
+		if(in.readInt() != ShardWorker.END_OF_RESULT)
+			throw new IOException("truncated result");
+
+		wordCounts.addAll(shardWordCounts);
+		productCounts.addAll(shardProductCounts);
+		synchronized(this) {
+			totalReviews += reviews;
+			skippedRows += skipped;
+			totalProducts += shardProducts;
+		}
+	}
+
+	/**
+	 * @return the merged top-K products, in the same format as Util.getTopProductsString
+	 */
+	public String getMostReviewedProductsString() {
+		List<ProductCount> products;
+		synchronized(productCounts) {
+			products = new ArrayList<>(productCounts);
+		}
+		products.sort((a, b) -> Integer.compare(b.count, a.count));
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("\n\t\t[\n");
+		for(int i = 0; i < products.size() && i < topK; i++) {
+			ProductCount product = products.get(i);
+			sb.append("\t\t  ").append(product.productId).append(":\n\t\t  product_title:  ");
+			sb.append(product.productTitle).append(",\n\t\t  ").append("size:  ").append(product.count).append(",\n\n");
+		}
+		int left = Math.max(0, totalProducts - topK);
+		sb.append("\t\t  ...").append(left).append(" more \n\t\t]\n");
+		return sb.toString();
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.err.println("usage: java ShardCoordinator <file.tsv> [number of workers] [top K]");
+			System.exit(2);
+		}
+		File file = new File(args[0]);
+		int shardCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int topK = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		ShardCoordinator coordinator = new ShardCoordinator(file, shardCount, topK);
+		try {
+			coordinator.run();
+			System.out.println("There are: " + coordinator.totalReviews + " reviews (" + coordinator.skippedRows + " malformed rows skipped)");
+			System.out.println("These are the " + topK + " most frequent words found across all products:");
+			System.out.println(Util.getStringCountMapString(coordinator.wordCounts.toMap(), topK));
+			System.out.println("These are the " + topK + " most reviewed products:");
+			System.out.println(coordinator.getMostReviewedProductsString());
+		} catch(IOException ex) {
+			System.out.println(ex.getMessage());
+			System.exit(1);
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Done. Goodbye!");
+	}
+}
@@ -0,0 +1,153 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ * A worker process of the sharded run, started by ShardCoordinator.
+ *
+ * It reads the whole file with a TsvLineReader, like MainProcessor does, but only keeps the rows whose product_id
+ * hashes to its shard, so every product is counted by exactly one worker. The product_id is found with Util.getField
+ * and only the rows of the shard are parsed with Util.parseLine, like MainProcessor parses them,
+ * so both agree on what a well-formed row is and every row is parsed by one worker only.
+ * The partial word counts and the shard's top-K most reviewed products are sent back to the coordinator
+ * over a localhost socket. No CustomerReview objects are kept, only the counts.
+ *
+ * usage: java ShardWorker <coordinator port> <shard index> <shard count> <top K> <file.tsv>
+ *
+ * @author kaungyang
+ *
+ */
+public class ShardWorker {
+
+	protected final static int MAGIC = 0x52455657; // "REVW"
+	protected final static int END_OF_RESULT = -1;
+
+	/**
+	 * @param productId the product_id of a review
+	 * @param shardCount the number of shards
+	 * @return the shard that owns the product. String.hashCode is the same on every JVM.
+	 */
+	public static int shardOf(String productId, int shardCount) {
+		return Math.floorMod(productId.hashCode(), shardCount);
+	}
+
+	public static void main(String[] args) {
+		if(args.length != 5) {
+			System.err.println("usage: java ShardWorker <coordinator port> <shard index> <shard count> <top K> <file.tsv>");
+			System.exit(2);
+		}
+		int port = Integer.parseInt(args[0]);
+		int shardIndex = Integer.parseInt(args[1]);
+		int shardCount = Integer.parseInt(args[2]);
+		int topK = Integer.parseInt(args[3]);
+		File file = new File(args[4]);
+
+		try {
+			Map<String, Integer> wordCounts = new HashMap<>();
+			Map<String, Integer> productCounts = new HashMap<>();
+			Map<String, String> productTitles = new HashMap<>();
+			int[] rowCounts = countShard(file, shardIndex, shardCount, wordCounts, productCounts, productTitles);
+
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+				writeResult(out, shardIndex, rowCounts, wordCounts, productCounts, productTitles, topK);
+			}
+		} catch(IOException ex) {
+			System.err.println("shard " + shardIndex + ": " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * counts the words and reviews per product of the rows that belong to the shard.
+	 *
+	 * @return {number of reviews counted, number of malformed rows skipped}
+	 */
+	private static int[] countShard(File file, int shardIndex, int shardCount, Map<String, Integer> wordCounts,
+			Map<String, Integer> productCounts, Map<String, String> productTitles) throws IOException {
+		int reviews = 0;
+		int skipped = 0;
+		try (TsvLineReader reader = new TsvLineReader(file, 0, false)) {
+			String header = reader.readLine();
+			if(header == null)
+				return new int[] { 0, 0 };
+			int numberOfDataColumns = Util.parseHeader(header, "\t").length;
+
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.isEmpty())
+					continue;
+				// rows without a product_id belong to shard 0, which skips them
+				String productId = Util.getField(line, "\t", Util.PRODUCT_ID_INDEX);
+				if((productId == null ? 0 : shardOf(productId, shardCount)) != shardIndex)
+					continue;
+
+				String[] data;
+				try {
+					data = Util.parseLine(line, "\t", numberOfDataColumns);
+				} catch(CustomExceptions.ExpectedLessDataColumnsException ex) {
+					skipped++;
+					continue;
+				}
+
+				CustomerReview review;
+				try {
+					review = Util.buildCustomerReview(data);
+				} catch(NumberFormatException ex) {
+					skipped++;
+					continue;
+				}
+				if(review == null) {
+					skipped++;
+					continue;
+				}
+
+				reviews++;
+				productCounts.merge(review.getProductId(), 1, Integer::sum);
+				productTitles.putIfAbsent(review.getProductId(), review.getProductTitle());
+				for(String word: Util.getCleanWordArray(review.getReviewBody())) {
+					wordCounts.merge(word, 1, Integer::sum);
+				}
+			}
+		}
+		return new int[] { reviews, skipped };
+	}
+
+	/**
+	 * result format:
+	 * MAGIC, shard index, reviews, skipped rows,
+	 * number of words, (word, count)...,
+	 * number of products in the shard, number of products sent,
+	 * (product_id, product_title, count)... sorted by count, at most topK,
+	 * END_OF_RESULT
+	 */
+	private static void writeResult(DataOutputStream out, int shardIndex, int[] rowCounts, Map<String, Integer> wordCounts,
+			Map<String, Integer> productCounts, Map<String, String> productTitles, int topK) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(shardIndex);
+		out.writeInt(rowCounts[0]);
+		out.writeInt(rowCounts[1]);
+
+		out.writeInt(wordCounts.size());
+		for(Map.Entry<String, Integer> entry: wordCounts.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+
+		List<Map.Entry<String, Integer>> products = new ArrayList<>(productCounts.entrySet());
+		products.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+		int numProducts = Math.min(topK, products.size());
+		out.writeInt(products.size());
+		out.writeInt(numProducts);
+		for(int i = 0; i < numProducts; i++) {
+			String productId = products.get(i).getKey();
+			out.writeUTF(productId);
+			out.writeUTF(productTitles.get(productId));
+			out.writeInt(products.get(i).getValue());
+		}
+
+		out.writeInt(END_OF_RESULT);
+		out.flush();
+	}
+}
@@ -0,0 +1,179 @@
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * The base of the tables that keep a row of values per long key (a packed id, a numeric customer_id, ...)
+ * and are updated by several ingest threads at once.
+ *
+ * The keys are split into STRIPES stripes by hash, each with its own lock. A stripe finds the row of a key
+ * with a LongIntHashMap and row i belongs to the i-th key added to it, so the values of a subclass live in
+ * arrays indexed by row that it grows in growRows. Rows cannot be removed, only all of them at once.
+ *
+ * @author kaungyang
+ *
+ * @param <S> the type of the stripes
+ */
+public abstract class StripedLongTable<S extends StripedLongTable.Stripe> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final static int STRIPES = 16;
+
+	/**
+	 * The value of a row, for getTopRows.
+	 */
+	protected interface RowValue<S> {
+		double valueOf(S stripe, int row);
+	}
+
+	/**
+	 * Copies a row out of its stripe, for getTopRows.
+	 */
+	protected interface RowSnapshot<S, T> {
+		T snapshot(S stripe, int row);
+	}
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	/**
+	 * @param newStripe makes an empty stripe
+	 */
+	protected StripedLongTable(Supplier<S> newStripe) {
+		for(int i = 0; i < STRIPES; i++) {
+			stripes[i] = newStripe.get();
+		}
+	}
+
+	/**
+	 * The rows of a stripe. Only used while the stripe is locked.
+	 */
+	protected abstract static class Stripe implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private LongIntHashMap rows = new LongIntHashMap();
+		protected long[] keys = new long[16];
+		protected int size = 0;
+
+		/**
+		 * grows the value arrays of the subclass to the length, keeping the rows they have.
+		 */
+		protected abstract void growRows(int length);
+
+		/**
+		 * @return the row of the key, or -1 if it has none
+		 */
+		protected int findRow(long key) {
+			return rows.get(key, -1);
+		}
+
+		/**
+		 * @return the row of the key, added if it has none
+		 */
+		protected int rowOf(long key) {
+			int row = rows.get(key, -1);
+			if(row >= 0)
+				return row;
+
+			if(size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				growRows(size * 2);
+			}
+			keys[size] = key;
+			rows.put(key, size);
+			return size++;
+		}
+
+		/**
+		 * removes all the rows. the subclass has to drop its values as well.
+		 */
+		protected void clearRows() {
+			rows = new LongIntHashMap();
+			keys = new long[16];
+			size = 0;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected S stripeOf(long key) {
+		int h = Long.hashCode(key * 0x9E3779B97F4A7C15L);
+		return (S) stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	@SuppressWarnings("unchecked")
+	protected S stripe(int index) {
+		return (S) stripes[index];
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe stripe: stripes) {
+			synchronized(stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @param count the count of a row, e.g. its number of reviews
+	 * @param minCount the lowest count of a row that is counted
+	 * @return the number of rows whose count is at least minCount
+	 */
+	protected int countRows(RowValue<S> count, int minCount) {
+		int rows = 0;
+		for(int s = 0; s < STRIPES; s++) {
+			S stripe = stripe(s);
+			synchronized(stripe) {
+				for(int row = 0; row < stripe.size; row++) {
+					if(count.valueOf(stripe, row) >= minCount)
+						rows++;
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * returns the n rows with the highest value, ties broken by the count.
+	 *
+	 * @param value the value to rank by
+	 * @param count the count of a row, e.g. its number of reviews
+	 * @param n the number of rows to return
+	 * @param minCount rows with a lower count are left out
+	 * @param snapshot copies a row
+	 * @return the copies of the rows, highest first
+	 */
+	protected <T> List<T> getTopRows(RowValue<S> value, RowValue<S> count, int n, int minCount, RowSnapshot<S, T> snapshot) {
+		// min-heap of {value, count, stripe, row}, so the lowest of the top rows is dropped first
+		PriorityQueue<double[]> top = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]));
+		for(int s = 0; s < STRIPES; s++) {
+			S stripe = stripe(s);
+			synchronized(stripe) {
+				for(int row = 0; row < stripe.size; row++) {
+					double rowCount = count.valueOf(stripe, row);
+					if(rowCount < minCount)
+						continue;
+					top.add(new double[] { value.valueOf(stripe, row), rowCount, s, row });
+					if(top.size() > n) {
+						top.poll();
+					}
+				}
+			}
+		}
+
+		List<T> rows = new ArrayList<>(top.size());
+		while(!top.isEmpty()) {
+			double[] entry = top.poll();
+			S stripe = stripe((int) entry[2]);
+			synchronized(stripe) {
+				rows.add(snapshot.snapshot(stripe, (int) entry[3]));
+			}
+		}
+		Collections.reverse(rows);
+		return rows;
+	}
+}
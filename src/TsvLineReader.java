@@ -0,0 +1,102 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a UTF-8 file and keeps track of the byte offset of every line,
+ * so that reading can continue later from the same offset (e.g. when the file grows).
+ *
+ * Lines end with "\n" or "\r\n". When waitForNewline is set, a last line without a line break
+ * is not returned, since the rest of it may still be written; it is returned once its line break arrives.
+ *
+ * @author kaungyang
+ *
+ */
+public class TsvLineReader implements Closeable {
+
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	private final boolean waitForNewline;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private byte[] pending = new byte[256]; // bytes of the line being read
+	private int pendingLength = 0;
+	private long offset; // offset of the first byte that has not been returned as part of a line
+	private long lineOffset = -1; // offset of the last returned line
+
+	/**
+	 * @param file the file to read
+	 * @param offset the byte offset to start from, must be the start of a line
+	 * @param waitForNewline whether a last line without a line break should wait for it
+	 */
+	public TsvLineReader(File file, long offset, boolean waitForNewline) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.waitForNewline = waitForNewline;
+		this.offset = offset;
+		this.channel.position(offset);
+		this.buffer.flip(); // empty
+	}
+
+	/**
+	 * returns the next line, without its line break.
+	 * it can be called again after it returned null, to read lines that were appended since.
+	 *
+	 * @return the next line, or null if there is no complete line to read yet
+	 */
+	public String readLine() throws IOException {
+		while(true) {
+			while(buffer.hasRemaining()) {
+				byte b = buffer.get();
+				if(b == '\n') {
+					return completeLine(1);
+				}
+				if(pendingLength == pending.length) {
+					pending = Arrays.copyOf(pending, pending.length * 2);
+				}
+				pending[pendingLength++] = b;
+			}
+
+			buffer.clear();
+			int read = channel.read(buffer);
+			buffer.flip();
+			if(read <= 0) {
+				if(!waitForNewline && pendingLength > 0) {
+					return completeLine(0);
+				}
+				return null;
+			}
+		}
+	}
+
+	private String completeLine(int lineBreakLength) {
+		int length = pendingLength;
+		if(length > 0 && pending[length - 1] == '\r') {
+			length--;
+		}
+		String line = new String(pending, 0, length, StandardCharsets.UTF_8);
+		lineOffset = offset;
+		offset += pendingLength + lineBreakLength;
+		pendingLength = 0;
+		return line;
+	}
+
+	/** @return the byte offset of the line that was returned last, -1 before the first line */
+	public long getLineOffset() { return lineOffset; }
+
+	/** @return the byte offset right after the line that was returned last, where reading could resume */
+	public long getOffset() { return offset; }
+
+	/** @return the current size of the file in bytes */
+	public long size() throws IOException { return channel.size(); }
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,120 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a TSV file that is still being appended to, like "tail -f".
+ *
+ * Every POLL_INTERVAL_MS it checks whether the file grew past the last consumed byte offset,
+ * reads only the new complete lines and hands them to the consumer, on the tailer's own thread.
+ * After every poll that found new lines, onCaughtUp is run, e.g. to refresh the results.
+ * A line without its line break yet is left for the next poll.
+ * If the file shrinks (e.g. it was replaced), following stops.
+ *
+ * @author kaungyang
+ *
+ */
+public class TsvTailer {
+
+	private final static long POLL_INTERVAL_MS = 250;
+	private final static int MAX_LINES_PER_CALL = 1000;
+	private final static long STOP_TIMEOUT_MS = 10000;
+
+	private final TsvLineReader reader;
+	private final Consumer<LineBatch> consumer;
+	private final Runnable onCaughtUp;
+	private final ScheduledExecutorService poller;
+	private volatile Thread pollerThread;
+
+	/**
+	 * @param file the file to follow
+	 * @param offset the byte offset of the first line that has not been consumed yet
+	 * @param consumer receives the new lines, at most MAX_LINES_PER_CALL at a time
+	 * @param onCaughtUp runs once all the new lines of a poll have been consumed
+	 */
+	public TsvTailer(File file, long offset, Consumer<LineBatch> consumer, Runnable onCaughtUp) throws IOException {
+		this.reader = new TsvLineReader(file, offset, true);
+		this.consumer = consumer;
+		this.onCaughtUp = onCaughtUp;
+		this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "tsv-tailer");
+			t.setDaemon(true);
+			pollerThread = t;
+			return t;
+		});
+	}
+
+	public void start() {
+		poller.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/** @return the byte offset right after the last consumed line */
+	public long getOffset() { return reader.getOffset(); }
+
+	private void poll() {
+		try {
+			if(reader.size() < reader.getOffset()) {
+				System.out.println("The file got smaller, stopped following it.");
+				stop();
+				return;
+			}
+
+			long startOffset = reader.getOffset();
+			LineBatch lines = new LineBatch(MAX_LINES_PER_CALL);
+			String line;
+			while((line = reader.readLine()) != null) {
+				lines.add(line, reader.getLineOffset());
+				if(lines.size() == MAX_LINES_PER_CALL) {
+					consumer.accept(lines);
+					lines = new LineBatch(MAX_LINES_PER_CALL);
+				}
+			}
+			if(!lines.isEmpty()) {
+				consumer.accept(lines);
+			}
+			if(reader.getOffset() != startOffset) {
+				onCaughtUp.run();
+			}
+		} catch(IOException ex) {
+			System.out.println(ex.getMessage());
+			stop();
+		} catch(RuntimeException ex) {
+			// keep following, a bad batch should not stop the feed
+			System.out.println(ex.getMessage());
+		}
+	}
+
+	/**
+	 * stops following and closes the file.
+	 * the file is closed on the tailer's thread, after a poll that is still running.
+	 * called from another thread, it returns once that poll is over and the file is closed
+	 * (or after STOP_TIMEOUT_MS), so the caller can close what the consumer writes to.
+	 */
+	public void stop() {
+		synchronized(this) {
+			if(!poller.isShutdown()) {
+				poller.execute(() -> {
+					try {
+						reader.close();
+					} catch(IOException ex) {
+						System.out.println(ex.getMessage());
+					}
+				});
+				poller.shutdown();
+			}
+		}
+		if(Thread.currentThread() == pollerThread)
+			return; // a poll that stops the tailer, the file is closed right after it
+
+		try {
+			if(!poller.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				System.out.println("The tailer did not stop within " + STOP_TIMEOUT_MS + " ms.");
+			}
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -62,20 +62,30 @@ public class Util {
 	/**
 	 * this method returns the string representation of string-count hashmap. 
 	 * used to print maps like string-count hash maps that contains the string as the key and count as the value. 
+	 * only the numOfString highest counts are sorted, so it is fast enough to be called while following a file. 
 	 *    
 	 * @param map the map that contains the strings and counts 
 	 * @param numOfString the number of strings to print. 
 	 * @return A String representation of the string-count hashmap for numOfString amount of times.  
 	 */
 	public static String getStringCountMapString(Map<String, Integer> map, int numOfString) {
-		int size = map.size();
+		return getStringCountMapString(map, numOfString, map.size()); 
+	}
+	
+	/**
+	 * like getStringCountMapString, for a map that only holds the top strings of a larger count, 
+	 * e.g. from ConcurrentStringCounter.getTopCounts. 
+	 * 
+	 * @param map the map that contains the top strings and their counts 
+	 * @param numOfString the number of strings to print. 
+	 * @param size the number of strings of the whole count, for the number of strings that are not printed 
+	 * @return A String representation of the string-count hashmap for numOfString amount of times.  
+	 */
+	public static String getStringCountMapString(Map<String, Integer> map, int numOfString, int size) {
 		StringBuilder sb = new StringBuilder(); 
 		sb.append("\n\t\t[\n"); 
 		
-		Set<String> keys = map.keySet(); 
-		Iterator<String> itr = keys.iterator(); 
-		
-		LinkedHashMap<String, Integer> sortedMap = sortHashMapByValues(map); 
+		LinkedHashMap<String, Integer> sortedMap = sortHashMapByValues(getTopCounts(map, numOfString)); 
 		
 		List<String> sortedKeySet = new ArrayList<>(sortedMap.keySet());
 		
@@ -98,62 +108,119 @@ public class Util {
 	}
 	
 	/**
-	 * this method returns the String representation of the most reviewed products
+	 * this method returns the String representation of the top products by a metric, 
+	 * with the other statistics of each product. 
+	 * it only needs the per-product statistics, not the reviews. 
 	 * 
-	 * @param map the map that contains the product, listMapNode
-	 * @param reviewMap the hashmap that contains all the reviews using the review_id as the key 
-	 * @param numOfProducts the number of products (number of times) to print, sorted, reversed
-	 * @return
+	 * @param table the per-product statistics built during ingest
+	 * @param metric the metric to rank the products by 
+	 * @param numOfProducts the number of products to print
+	 * @param minReviews the minimum number of reviews of a printed product
+	 * @return the String representation of the top products
 	 */
-	public static String getMostReviewedProducts(Map<String, ListMapNode> map, Map<String, CustomerReview> reviewMap, int numOfProducts) {
-		int size = map.size();
+	public static String getTopProductsString(ProductStatsTable table, ProductStatsTable.Metric metric, int numOfProducts, int minReviews) {
+		List<ProductStatsTable.ProductStats> products = table.getTopProducts(metric, numOfProducts, minReviews); 
 		StringBuilder sb = new StringBuilder(); 
 		sb.append("\n\t\t[\n"); 
-		int max = 0; 
-		
-		Map<String, Integer> numOfReviewsOnProductHashMap = new HashMap<>(); 
-	
-		Set<String> productIdKeys = map.keySet(); 
-		Iterator<String> keyItr = productIdKeys.iterator(); 
 		
-		while(keyItr.hasNext()) {
-			String key = keyItr.next(); 	
-			ListMapNode lmn = map.get(key);
-			
-			List<String> reviewIdList = lmn.first(); 
-			int reviewListSize = reviewIdList.size(); 
-			if(key != null) {
-				numOfReviewsOnProductHashMap.put(key, reviewListSize);
-			}
-			 
+		for(ProductStatsTable.ProductStats product: products) {
+			sb.append("\t\t  ").append(product.getProductId()).append(":\n\t\t  product_title:  ");
+			sb.append(product.getProductTitle()).append(",\n\t\t  ").append("size:  ").append(product.getReviewCount()).append(",\n"); 
+			sb.append("\t\t  mean_rating:  ").append(String.format("%.2f", product.getMeanRating())); 
+			sb.append(",  stars:  ").append(Arrays.toString(product.getStarHistogram())); 
+			sb.append(",  helpful_ratio:  ").append(String.format("%.2f", product.getHelpfulRatio())); 
+			sb.append(",  verified_share:  ").append(String.format("%.2f", product.getVerifiedShare())).append(",\n\n"); 
 		}
 		
-		LinkedHashMap<String, Integer> sortedMap = sortHashMapByValues(numOfReviewsOnProductHashMap); 
-		List<String> sortedKeySet = new ArrayList<>(sortedMap.keySet());
-		Collections.reverse(sortedKeySet); 
-
-		Iterator<String> sortedMapKeyItr = sortedKeySet.iterator(); 
+		int left = table.getProductCount(minReviews)-products.size(); // of the products with at least minReviews reviews
+		sb.append("\t\t  ...").append(left).append(" more \n\t\t]\n");
 		
-		int count = 0; 
-		while(sortedMapKeyItr.hasNext() && count < numOfProducts) {
-			String tempKey = sortedMapKeyItr.next();
-			int tempValue = sortedMap.get(tempKey); 
-			String customerReviewId = map.get(tempKey).first().get(0);
-			String productTitle = reviewMap.get(customerReviewId).getProductTitle(); 
-			
-			sb.append("\t\t  ").append(tempKey).append(":\n\t\t  product_title:  ");
-			sb.append(productTitle).append(",\n\t\t  ").append("size:  ").append(tempValue).append(",\n\n"); 
-			count++; 
+		return sb.toString(); 
+	}
+	
+	/**
+	 * this method returns the String representation of the top customers by a metric. 
+	 * 
+	 * @param table the per-customer statistics built during ingest
+	 * @param metric the metric to rank the customers by 
+	 * @param numOfCustomers the number of customers to print
+	 * @param minReviews the minimum number of reviews of a printed customer
+	 * @return the String representation of the top customers
+	 */
+	public static String getTopCustomersString(CustomerStatsTable table, CustomerStatsTable.Metric metric, int numOfCustomers, int minReviews) {
+		List<CustomerStatsTable.CustomerStats> customers = table.getTopCustomers(metric, numOfCustomers, minReviews); 
+		StringBuilder sb = new StringBuilder(); 
+		sb.append("\n\t\t[\n"); 
+		
+		for(CustomerStatsTable.CustomerStats customer: customers) {
+			sb.append("\t\t  ").append(customer.getCustomerId()).append(":  ").append(customer.getReviewCount()).append(" reviews"); 
+			sb.append(",  mean_rating:  ").append(String.format("%.2f", customer.getMeanRating())); 
+			sb.append(",  1_star:  ").append(customer.getOneStarCount()); 
+			sb.append(",  5_star:  ").append(customer.getFiveStarCount()); 
+			sb.append(",  helpful_votes:  ").append(customer.getHelpfulVotes()); 
+			sb.append(",  verified:  ").append(customer.getVerifiedCount()).append(",\n"); 
 		}
 		
-		int left = size-numOfProducts; 
-		if(left < 0)
-			left = 0; 
+		int left = table.getCustomerCount(minReviews)-customers.size(); // of the customers with at least minReviews reviews
 		sb.append("\t\t  ...").append(left).append(" more \n\t\t]\n");
 		
 		return sb.toString(); 
 	}
 	
+	/**
+	 * this method returns the String representation of the monthly review volume and rating of every category,
+	 * for the last numOfMonths months of the data, followed by the top words of the last 4 weeks. 
+	 * 
+	 * @param timeSeries the time series built during ingest
+	 * @param numOfMonths the number of months to print, ending at the last review of each category
+	 * @param numOfWords the number of top words to print
+	 * @return the String representation of the category trends
+	 */
+	public static String getCategoryTrendString(ReviewTimeSeries timeSeries, int numOfMonths, int numOfWords) {
+		StringBuilder sb = new StringBuilder(); 
+		List<String> categories = new ArrayList<>(timeSeries.getCategories()); 
+		Collections.sort(categories); 
+		
+		for(String category: categories) {
+			ReviewTimeSeries.DailySeries series = timeSeries.getCategorySeries(category); 
+			int lastDay = series.getLastDay(); 
+			int lastMonth = ReviewTimeSeries.bucketStart(lastDay, ReviewTimeSeries.Granularity.MONTH); 
+			int fromDay = (int) java.time.LocalDate.ofEpochDay(lastMonth).minusMonths(numOfMonths - 1).toEpochDay(); 
+			
+			sb.append("\t").append(category).append(":\n\t\t[\n"); 
+			for(ReviewTimeSeries.Bucket bucket: series.getBuckets(fromDay, lastDay, ReviewTimeSeries.Granularity.MONTH)) {
+				sb.append("\t\t  ").append(bucket).append(",\n"); 
+			}
+			sb.append("\t\t]\n\tmost frequent words of the last 4 weeks:"); 
+			// the words of the earlier weeks may be dropped, see DailySeries.getFirstWordDay 
+			int fromWordDay = Math.max(lastDay - 27, series.getFirstWordDay()); 
+			sb.append(getStringCountMapString(series.getWordCounts(fromWordDay, lastDay), numOfWords)); 
+		}
+		return sb.toString(); 
+	}
+	
+	/**
+	 * returns the numOfStrings entries with the highest counts, so that only those have to be sorted for printing. 
+	 * 
+	 * @param map the string-count map 
+	 * @param numOfStrings the number of entries to keep 
+	 * @return a map with the top numOfStrings entries 
+	 */
+	public static Map<String, Integer> getTopCounts(Map<String, Integer> map, int numOfStrings) {
+		PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(Map.Entry.comparingByValue()); 
+		for(Map.Entry<String, Integer> entry: map.entrySet()) {
+			top.add(entry); 
+			if(top.size() > numOfStrings) {
+				top.poll(); 
+			}
+		}
+		Map<String, Integer> topMap = new HashMap<>(); 
+		for(Map.Entry<String, Integer> entry: top) {
+			topMap.put(entry.getKey(), entry.getValue()); 
+		}
+		return topMap; 
+	}
+	
 	/**
 	 * sorts the hash map provided by its value. 
 	 * 
@@ -189,6 +256,80 @@ public class Util {
 	    return sortedMap;
 	}
 	
+	/**
+	 * this method parses the header line of a data set using the delimiter provided. 
+	 * 
+	 * @param line the header line
+	 * @param delimiter the delimiter to use
+	 * @return the names of the data columns
+	 */
+    public static String[] parseHeader(String line, String delimiter) {
+		Scanner lineScan = new Scanner(line); 
+    	lineScan.useDelimiter(delimiter); 
+    	
+		List<String> dataColumns = new ArrayList<String>();
+		while(lineScan.hasNext()) {
+			String s = lineScan.next(); 
+			dataColumns.add(s); 
+		}
+		
+		return dataColumns.toArray(new String[0]); 
+    }
+    
+	/**
+	 * this method parses a single data line using the delimiter provided. 
+	 * MainProcessor and ShardWorker both parse the rows with it, so they agree on what a well-formed row is. 
+	 * 
+	 * @param line the line to be parsed
+	 * @param delimiter the delimiter to use
+	 * @param numberOfDataColumns the number of columns of the header
+	 * @return the numberOfDataColumns fields of the row, null for the missing ones at the end
+	 * @throws ExpectedLessDataColumnsException if the row has more fields than the header
+	 */
+    public static String[] parseLine(String line, String delimiter, int numberOfDataColumns) throws CustomExceptions.ExpectedLessDataColumnsException {
+		Scanner lineScan = new Scanner(line); 
+    	lineScan.useDelimiter(delimiter); 
+    	
+		int dataCount = 0;
+		String[] data = new String[numberOfDataColumns]; 
+		
+		while(lineScan.hasNext()) { 
+			if( dataCount < numberOfDataColumns ) {
+				String s = lineScan.next();
+    			data[dataCount] = s; 
+    			dataCount++;
+			} else {				
+				throw new CustomExceptions().new ExpectedLessDataColumnsException(); // more than two columns in the data  
+			}  
+		}
+   
+    	return data;
+    }
+    
+	/**
+	 * returns one field of a data line, the same as parseLine would return at the index, without parsing the other fields. 
+	 * like the Scanner of parseLine, it skips one delimiter at the start of the line 
+	 * and a delimiter at the end of the line does not start an empty field. 
+	 * 
+	 * @param line the line
+	 * @param delimiter the delimiter to use
+	 * @param index the index of the field
+	 * @return the field, or null if the line has less fields 
+	 */
+    public static String getField(String line, String delimiter, int index) {
+    	int start = line.startsWith(delimiter) ? delimiter.length() : 0; 
+    	for(int i = 0; ; i++) {
+    		int end = line.indexOf(delimiter, start); 
+    		if(end < 0) {
+    			return i == index && start < line.length() ? line.substring(start) : null; 
+    		}
+    		if(i == index) {
+    			return line.substring(start, end); 
+    		}
+    		start = end + delimiter.length(); 
+    	}
+    }
+    
 	/**
 	 * this method builds the customer review if all rows of the customer review is well-formed
 	 * otherwise, it will return a null object. 
@@ -223,6 +364,7 @@ public class Util {
 			.reviewHeadline(data[REVIEW_HEADLINE_INDEX])
 			.reviewBody(data[REVIEW_BODY_INDEX])
 			.reviewDate(data[REVIEW_DATE_INDEX])
+			.reviewDay(parseEpochDay(data[REVIEW_DATE_INDEX]))
 			.build(); 
 	
     		return newReview; 
@@ -262,6 +404,63 @@ public class Util {
 //    	
     }
     
+    /**
+     * parses a review_date in yyyy-MM-dd format into the number of days since 1970-01-01. 
+     * 
+     * @param date the review_date string 
+     * @return the epoch day, or CustomerReview.NO_DATE if the date is not well-formed 
+     */
+    public static int parseEpochDay(String date) {
+    	if(date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+    		return CustomerReview.NO_DATE; 
+    	}
+    	int year = parseDigits(date, 0, 4); 
+    	int month = parseDigits(date, 5, 7); 
+    	int day = parseDigits(date, 8, 10); 
+    	if(year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+    		return CustomerReview.NO_DATE; 
+    	}
+    	try {
+    		return (int) java.time.LocalDate.of(year, month, day).toEpochDay(); 
+    	} catch(java.time.DateTimeException ex) {
+    		return CustomerReview.NO_DATE; // e.g. 2015-02-30 
+    	}
+    }
+    
+    /* parses the digits of str from start (inclusive) to end (exclusive), -1 if there is a non-digit */ 
+    private static int parseDigits(String str, int start, int end) {
+    	int value = 0; 
+    	for(int i = start; i < end; i++) {
+    		char c = str.charAt(i); 
+    		if(c < '0' || c > '9') {
+    			return -1; 
+    		}
+    		value = value * 10 + (c - '0'); 
+    	}
+    	return value; 
+    }
+    
+    /**
+     * parses an id made of digits only, like customer_id, straight to a long without creating any objects. 
+     * 
+     * @param id the id string 
+     * @return the id as a long, or -1 if it is empty, not a number or longer than 18 digits 
+     */
+    public static long parseNumericId(String id) {
+    	if(id == null || id.isEmpty() || id.length() > 18) {
+    		return -1; 
+    	}
+    	long value = 0; 
+    	for(int i = 0; i < id.length(); i++) {
+    		char c = id.charAt(i); 
+    		if(c < '0' || c > '9') {
+    			return -1; 
+    		}
+    		value = value * 10 + (c - '0'); 
+    	}
+    	return value; 
+    }
+    
     /**
      * checks whether the string array contains null data 
      * @param data the string array that might contain some null data
@@ -304,24 +503,55 @@ public class Util {
     	return new String[] {}; 
     }
     
+    /**
+     * this function joins every n consecutive words with a space, e.g. "sound quality" for n = 2. 
+     * 
+     * @param words the clean words of a review, from getCleanWordArray
+     * @param n the number of words in each n-gram
+     * @return the array of n-grams, empty if there are less than n words 
+     */
+    public static String[] getNGrams(String[] words, int n) {
+    	if(words.length < n) {
+    		return new String[] {}; 
+    	}
+    	String[] nGrams = new String[words.length - n + 1]; 
+    	StringBuilder sb = new StringBuilder(); 
+    	for(int i = 0; i < nGrams.length; i++) {
+    		sb.setLength(0); 
+    		sb.append(words[i]); 
+    		for(int j = 1; j < n; j++) {
+    			sb.append(' ').append(words[i + j]); 
+    		}
+    		nGrams[i] = sb.toString(); 
+    	}
+    	return nGrams; 
+    }
+    
     /**
      * this function prints out the productIdMap. Uses product_id as the key and ListMapNode as a value.
      * the ListMapNode, described by <List, Map<String, Integer> contains the list of all review id's and
      * a HashMap that uses the string as the key and stores the number of occurence as its value.  
      *  
-     * @param map the productIdMap  
+     * @param map the productIdMap, keyed by the encoded product_id 
+     * @param productIdCodec the IdCodec that encoded the product_ids
+     * @param reviewIdCodec the IdCodec that encoded the review_ids
      */
-	public static void printProductIdMap(Map<String, ListMapNode> map, int numTimes) {
-		//	private Map< String, ListMapNode > productIdMap = new HashMap<>();
+	public static void printProductIdMap(ConcurrentLongObjectMap<ListMapNode> map, IdCodec productIdCodec, IdCodec reviewIdCodec, int numTimes) {
+		//	private ConcurrentLongObjectMap<ListMapNode> productIdMap = new ConcurrentLongObjectMap<>();
 		if(map != null) {
-			Set<String> productIds = map.keySet(); 
-			Iterator<String> itr = productIds.iterator();
+			List<Long> productIds = new ArrayList<>(); 
+			map.forEach((productId, node) -> productIds.add(productId)); 
+			Iterator<Long> itr = productIds.iterator();
 			StringBuilder sb = new StringBuilder();
 			int count = 0;
 			while(itr.hasNext() && count < numTimes) {
-				String productId = itr.next(); 
-				ListMapNode node = map.get(productId);
-				List<String> reviewIdList = node.first(); 
+				long productIdCode = itr.next(); 
+				String productId = productIdCodec.decode(productIdCode); 
+				ListMapNode node = map.get(productIdCode);
+				List<String> reviewIdList = new ArrayList<>(); 
+				for(long reviewIdCode: node.first().toDistinctArray()) {
+					reviewIdList.add(reviewIdCodec.decode(reviewIdCode)); 
+				}
 				Map<String, Integer> stringCountMap = node.second();
 
 				String listStr = Util.getListString(reviewIdList, 10);